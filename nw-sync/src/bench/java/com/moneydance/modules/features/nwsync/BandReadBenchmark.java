@@ -0,0 +1,106 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.sun.star.table.CellRangeAddress;
+
+/**
+ * Benchmark reading the used area of the open spreadsheet document in row
+ * bands over one through several bridge connections, to find the number of
+ * connections beyond which more stop helping. Runs outside Moneydance,
+ * against a local office installation with one spreadsheet document open:
+ *
+ * <pre>java -cp ... com.moneydance.modules.features.nwsync.BandReadBenchmark officeInstallPath [maxConnections] [reads]</pre>
+ */
+public class BandReadBenchmark {
+	private static final int WARMUP_READS = 3;
+
+	/**
+	 * @param args Office install path, then optionally the most connections to
+	 *             try and the number of reads to time for each
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: BandReadBenchmark officeInstallPath [maxConnections] [reads]");
+
+			return;
+		}
+		int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int numReads = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		ForkJoinPool computePool = new ForkJoinPool(maxConnections);
+
+		try {
+			OfficeTransport.OfficeConnection connection =
+				OfficeTransport.PIPE.connectWithFallback(args[0]);
+			CalcDoc primary = BridgePool.openDoc(connection.remoteContext(), null);
+			CellRangeAddress usedArea = primary.getUsedArea();
+			double baseline = 0;
+			System.out.printf("%s: %,d rows by %,d columns%n", primary,
+				usedArea.EndRow - usedArea.StartRow + 1, usedArea.EndColumn - usedArea.StartColumn + 1);
+
+			for (int size = 1; size <= maxConnections; ++size) {
+				try (BridgePool bridgePool = BridgePool.open(primary,
+						connection.connectDescription(), size)) {
+					if (bridgePool.size() < size) {
+						System.out.printf("%2d connections unavailable%n", size);
+						break;
+					}
+					List<int[]> bands = getBands(usedArea, size);
+					timeReads(bridgePool, bands, usedArea, computePool, WARMUP_READS);
+					double millis = timeReads(bridgePool, bands, usedArea, computePool, numReads)
+						/ 1e6 / numReads;
+
+					if (size == 1) {
+						baseline = millis;
+					}
+					System.out.printf("%2d connections %,9.1f ms per read, %4.2fx%n", size, millis,
+						baseline / millis);
+				}
+			} // end for
+		} finally {
+			computePool.shutdown();
+			OdsAccessor.closeOfficeConnection();
+		}
+
+	} // end main(String[])
+
+	/**
+	 * @param usedArea The area to read
+	 * @param numBands Number of bands wanted
+	 * @return First and last sheet row of each band
+	 */
+	private static List<int[]> getBands(CellRangeAddress usedArea, int numBands) {
+		int numRows = usedArea.EndRow - usedArea.StartRow + 1;
+		int bandRows = Math.ceilDiv(numRows, numBands);
+		List<int[]> bands = new ArrayList<>();
+
+		for (int first = usedArea.StartRow; first <= usedArea.EndRow; first += bandRows) {
+			bands.add(new int[] { first, Math.min(usedArea.EndRow, first + bandRows - 1) });
+		}
+
+		return bands;
+	} // end getBands(CellRangeAddress, int)
+
+	/**
+	 * @param bridgePool  The document open over each bridge
+	 * @param bands       First and last sheet row of each band
+	 * @param usedArea    The area to read
+	 * @param computePool Pool to read in
+	 * @param numReads    Number of times to read the whole area
+	 * @return Elapsed nanoseconds
+	 */
+	private static long timeReads(BridgePool bridgePool, List<int[]> bands,
+			CellRangeAddress usedArea, ForkJoinPool computePool, int numReads) throws Exception {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < numReads; ++i) {
+			bridgePool.readBands(bands, (doc, band) -> doc.readBlock(usedArea.StartColumn, band[0],
+				usedArea.EndColumn, band[1]), computePool);
+		}
+
+		return System.nanoTime() - start;
+	} // end timeReads(BridgePool, List<int[]>, CellRangeAddress, ForkJoinPool, int)
+
+} // end class BandReadBenchmark
@@ -0,0 +1,62 @@
+package com.moneydance.modules.features.nwsync;
+
+import static com.sun.star.uno.UnoRuntime.queryInterface;
+
+import com.sun.star.frame.XDesktop2;
+import com.sun.star.uno.XComponentContext;
+
+/**
+ * Microbenchmark comparing the latency of a remote call to the office
+ * process over each transport. Runs outside Moneydance, against a local
+ * office installation:
+ *
+ * <pre>java -cp ... com.moneydance.modules.features.nwsync.BridgeBenchmark officeInstallPath [calls]</pre>
+ */
+public class BridgeBenchmark {
+	private static final int WARMUP_CALLS = 1_000;
+
+	/**
+	 * @param args Office install path, then optionally the number of calls to time
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: BridgeBenchmark officeInstallPath [calls]");
+
+			return;
+		}
+		int numCalls = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+		for (OfficeTransport transport : OfficeTransport.values()) {
+			try {
+				XComponentContext remoteContext = transport.connect(args[0]).remoteContext();
+				XDesktop2 desktop = queryInterface(XDesktop2.class, remoteContext.getServiceManager()
+					.createInstanceWithContext("com.sun.star.frame.Desktop", remoteContext));
+				timeCalls(desktop, WARMUP_CALLS);
+				long elapsed = timeCalls(desktop, numCalls);
+				System.out.printf("%-6s %,d calls, %,.1f µs per call%n", transport, numCalls,
+					elapsed / 1_000.0 / numCalls);
+			} catch (Throwable e) {
+				System.out.printf("%-6s unavailable: %s%n", transport, e);
+			} finally {
+				OdsAccessor.closeOfficeConnection();
+			}
+		} // end for
+
+	} // end main(String[])
+
+	/**
+	 * @param desktop  The remote office desktop
+	 * @param numCalls Number of remote calls to make
+	 * @return Elapsed nanoseconds
+	 */
+	private static long timeCalls(XDesktop2 desktop, int numCalls) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < numCalls; ++i) {
+			desktop.getComponents(); // one round trip
+		}
+
+		return System.nanoTime() - start;
+	} // end timeCalls(XDesktop2, int)
+
+} // end class BridgeBenchmark
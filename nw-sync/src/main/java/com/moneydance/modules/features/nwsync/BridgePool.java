@@ -0,0 +1,237 @@
+package com.moneydance.modules.features.nwsync;
+
+import static com.sun.star.uno.UnoRuntime.queryInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MduException;
+import com.sun.star.bridge.XBridge;
+import com.sun.star.bridge.XBridgeFactory;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.connection.XConnector;
+import com.sun.star.container.XEnumeration;
+import com.sun.star.frame.XDesktop2;
+import com.sun.star.frame.XModel;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XMultiServiceFactory;
+import com.sun.star.lang.XServiceInfo;
+import com.sun.star.sheet.XSpreadsheetDocument;
+import com.sun.star.uno.XComponentContext;
+
+/**
+ * A spreadsheet document open over several bridge connections to the same
+ * office process. Each bridge serializes its own remote calls, so reading
+ * separate bands of rows over separate bridges lets the office process
+ * serve them concurrently.
+ */
+public class BridgePool implements AutoCloseable {
+	private final List<CalcDoc> docs;
+	private final List<XBridge> extraBridges;
+
+	/** Prefix of the names of the bridges we add */
+	private static final String BRIDGE_PREFIX = "nw-sync-band-";
+	private static final AtomicInteger nextBridgeId = new AtomicInteger();
+
+	/**
+	 * Read one band of a spreadsheet document.
+	 *
+	 * @param <B> Type of band
+	 * @param <T> Type read from each band
+	 */
+	@FunctionalInterface
+	public interface BandReader<B, T> {
+
+		/**
+		 * @param doc  The document, open over a bridge no other band is using now
+		 * @param band The band to read
+		 * @return What was read
+		 */
+		T read(CalcDoc doc, B band) throws MduException;
+
+	} // end interface BandReader
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param docs         The document open over each bridge, starting with the primary one
+	 * @param extraBridges The bridges we added
+	 */
+	private BridgePool(List<CalcDoc> docs, List<XBridge> extraBridges) {
+		this.docs = docs;
+		this.extraBridges = extraBridges;
+
+	} // end constructor
+
+	/**
+	 * Open a document over extra bridges to the office process it is already
+	 * connected to. When an extra bridge cannot be opened, the pool holds
+	 * those that could, so a sync can always proceed on the primary bridge.
+	 *
+	 * @param primary     The document open over our existing bridge
+	 * @param connectDesc How our existing bridge connected, such as
+	 *                    socket,host=localhost,port=8100, or null when unknown
+	 * @param size        Number of bridges wanted, including the existing one
+	 * @return A new pool
+	 */
+	public static BridgePool open(CalcDoc primary, String connectDesc, int size) {
+		List<CalcDoc> docs = new ArrayList<>(List.of(primary));
+		List<XBridge> extraBridges = new ArrayList<>();
+
+		if (size > 1 && connectDesc == null) {
+			MdLog.all("Unknown office connection; reading over 1 bridge instead of %d"
+				.formatted(size));
+		} else if (size > 1) {
+			try {
+				XMultiServiceFactory serviceMgr = Bootstrap.createSimpleServiceManager();
+				XBridgeFactory bridgeFactory = queryInterface(XBridgeFactory.class,
+					serviceMgr.createInstance("com.sun.star.bridge.BridgeFactory"));
+				XConnector connector = queryInterface(XConnector.class,
+					serviceMgr.createInstance("com.sun.star.connection.Connector"));
+
+				while (docs.size() < size) {
+					XBridge bridge = bridgeFactory.createBridge(
+						BRIDGE_PREFIX + nextBridgeId.incrementAndGet(), "urp",
+						connector.connect(connectDesc), null);
+					extraBridges.add(bridge);
+					XComponentContext remoteContext = queryInterface(XComponentContext.class,
+						bridge.getInstance("StarOffice.ComponentContext"));
+					docs.add(openDoc(remoteContext, primary.getUrlString()));
+				} // end while
+			} catch (Throwable e) {
+				MdLog.all("Problem opening office bridge %d of %d; continuing with %d"
+					.formatted(docs.size() + 1, size, docs.size()), e);
+
+				if (extraBridges.size() >= docs.size()) {
+					// the last bridge opened without its document
+					dispose(extraBridges.removeLast());
+				}
+			}
+		}
+
+		return new BridgePool(docs, extraBridges);
+	} // end open(CalcDoc, String, int)
+
+	/**
+	 * @param remoteContext The remote component context of a bridge
+	 * @param urlString     URL of the document wanted, or null for the only
+	 *                      spreadsheet document open
+	 * @return The spreadsheet document open in the office process
+	 */
+	public static CalcDoc openDoc(XComponentContext remoteContext, String urlString)
+			throws MduException {
+		List<XSpreadsheetDocument> docList = new ArrayList<>();
+		try {
+			XDesktop2 desktop = queryInterface(XDesktop2.class, remoteContext.getServiceManager()
+				.createInstanceWithContext("com.sun.star.frame.Desktop", remoteContext));
+			XEnumeration compItr = desktop.getComponents().createEnumeration();
+
+			while (compItr.hasMoreElements()) {
+				Object comp = compItr.nextElement();
+
+				if (queryInterface(XServiceInfo.class, comp)
+						.supportsService("com.sun.star.sheet.SpreadsheetDocument")
+						&& (urlString == null
+						|| urlString.equals(queryInterface(XModel.class, comp).getURL()))) {
+					docList.add(queryInterface(XSpreadsheetDocument.class, comp));
+				}
+			} // end while
+		} catch (Exception e) {
+			throw new MduException(e, "Exception finding spreadsheet documents");
+		}
+		if (docList.size() != 1)
+			throw new MduException(null, "Found %d spreadsheet documents matching %s",
+				docList.size(), urlString);
+
+		return new CalcDoc(docList.getFirst());
+	} // end openDoc(XComponentContext, String)
+
+	/**
+	 * @return Number of bridges the document is open over
+	 */
+	public int size() {
+
+		return this.docs.size();
+	} // end size()
+
+	/**
+	 * Read bands concurrently, one contiguous share of the bands per bridge.
+	 *
+	 * @param bands       The bands to read, in order
+	 * @param reader      How to read each band
+	 * @param computePool Pool to read the shares in
+	 * @return What was read from each band, in band order
+	 */
+	public <B, T> List<T> readBands(List<B> bands, BandReader<B, T> reader,
+			ForkJoinPool computePool) throws MduException {
+		int numShares = Math.min(size(), bands.size());
+
+		if (numShares <= 1)
+			return readShare(this.docs.getFirst(), bands, reader);
+
+		try {
+
+			return computePool.submit(() -> IntStream.range(0, numShares).parallel()
+				.mapToObj(share -> {
+					List<B> shareBands = bands.subList(share * bands.size() / numShares,
+						(share + 1) * bands.size() / numShares);
+					try {
+
+						return readShare(this.docs.get(share), shareBands, reader);
+					} catch (MduException e) {
+						throw new CompletionException(e);
+					}
+				}).flatMap(List::stream).toList()).join();
+		} catch (CompletionException e) {
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof MduException mduException)
+					throw mduException;
+			}
+			throw e;
+		}
+	} // end readBands(List<B>, BandReader<B, T>, ForkJoinPool)
+
+	/**
+	 * @param doc    The document to read from
+	 * @param bands  The bands to read, in order
+	 * @param reader How to read each band
+	 * @return What was read from each band, in band order
+	 */
+	private static <B, T> List<T> readShare(CalcDoc doc, List<B> bands,
+			BandReader<B, T> reader) throws MduException {
+		List<T> results = new ArrayList<>(bands.size());
+
+		for (B band : bands) {
+			results.add(reader.read(doc, band));
+		}
+
+		return results;
+	} // end readShare(CalcDoc, List<B>, BandReader<B, T>)
+
+	/**
+	 * @param bridge The bridge to dispose of, closing its connection
+	 */
+	private static void dispose(XBridge bridge) {
+		try {
+			queryInterface(XComponent.class, bridge).dispose();
+		} catch (Throwable e) {
+			MdLog.all("Problem disposing office bridge", e);
+		}
+
+	} // end dispose(XBridge)
+
+	/**
+	 * Close the bridges we added, keeping the primary one.
+	 */
+	public void close() {
+		this.extraBridges.forEach(BridgePool::dispose);
+		this.extraBridges.clear();
+
+	} // end close()
+
+} // end class BridgePool
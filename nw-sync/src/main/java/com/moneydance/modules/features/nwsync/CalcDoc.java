@@ -7,45 +7,84 @@ import static com.sun.star.table.CellContentType.VALUE;
 import static com.sun.star.uno.UnoRuntime.queryInterface;
 import static com.sun.star.util.NumberFormat.CURRENCY;
 import static com.sun.star.util.NumberFormat.DATE;
+import static com.sun.star.util.NumberFormat.NUMBER;
 import static com.sun.star.util.NumberFormat.PERCENT;
 import static com.sun.star.util.NumberFormat.UNDEFINED;
-import static java.time.temporal.ChronoUnit.DAYS;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import com.leastlogic.moneydance.util.MdLog;
 import com.leastlogic.moneydance.util.MduException;
-import com.moneydance.modules.features.nwsync.CellHandler.DateCellHandler;
-import com.moneydance.modules.features.nwsync.CellHandler.FloatCellHandler;
 import com.sun.star.beans.XPropertySet;
-import com.sun.star.container.XEnumeration;
-import com.sun.star.container.XEnumerationAccess;
 import com.sun.star.container.XIndexAccess;
+import com.sun.star.document.XDocumentProperties;
+import com.sun.star.document.XDocumentPropertiesSupplier;
+import com.sun.star.document.XUndoManager;
+import com.sun.star.document.XUndoManagerSupplier;
 import com.sun.star.frame.XModel;
+import com.sun.star.sheet.CellFlags;
+import com.sun.star.sheet.FormulaResult;
+import com.sun.star.sheet.XCellRangeAddressable;
+import com.sun.star.sheet.XCellRangeData;
+import com.sun.star.sheet.XCellRangesQuery;
+import com.sun.star.sheet.XSheetCellRanges;
 import com.sun.star.sheet.XSpreadsheet;
 import com.sun.star.sheet.XSpreadsheetDocument;
+import com.sun.star.sheet.XUniqueCellFormatRangesSupplier;
 import com.sun.star.sheet.XUsedAreaCursor;
 import com.sun.star.table.CellContentType;
+import com.sun.star.table.CellRangeAddress;
 import com.sun.star.table.XCell;
 import com.sun.star.table.XCellRange;
-import com.sun.star.table.XColumnRowRange;
 import com.sun.star.util.Date;
+import com.sun.star.util.DateTime;
 import com.sun.star.util.XNumberFormats;
+import com.sun.star.util.XModifiable;
 import com.sun.star.util.XNumberFormatsSupplier;
 
 /**
- * Class to hold attributes of a spreadsheet document.
+ * Class to hold attributes of an office spreadsheet document.
  */
-public class CalcDoc {
+public class CalcDoc extends SheetDoc {
 
 	private final XSpreadsheetDocument spreadsheetDoc;
-	private final String urlString;
 	private final XNumberFormats numberFormats;
-	private final LocalDate zeroDate;
+	private XSpreadsheet firstSheet = null;
 
-	private final List<CellHandler> changes = new ArrayList<>();
+	/** Title of the undo action grouping each commit's changes */
+	private static final String UNDO_TITLE = "NW Sync";
+	/** Most unstaged cells read to join two staged cells of a row into one range */
+	private static final int MAX_READ_GAP = 4;
+
+	/**
+	 * Cell kinds and values of a block of cells.
+	 *
+	 * @param kinds  Kind of each cell, by row then column
+	 * @param values Numeric value of each cell, zero when not numeric
+	 */
+	public record CellBlock(byte[][] kinds, double[][] values) {
+	} // end record CellBlock
+
+	/**
+	 * A rectangular block of staged cells: consecutive rows with the same
+	 * column range.
+	 *
+	 * @param start       Position in the sorted order of the block's first cell
+	 * @param end         Position in the sorted order just past the block's last cell
+	 * @param firstColumn Zero-based sheet column index of the block's first column
+	 * @param firstRow    Zero-based sheet row index of the block's first row
+	 * @param lastColumn  Zero-based sheet column index of the block's last column
+	 * @param lastRow     Zero-based sheet row index of the block's last row
+	 */
+	private record StagedBlock(int start, int end, int firstColumn, int firstRow, int lastColumn,
+		int lastRow) {
+	} // end record StagedBlock
 
 	/**
 	 * Sole constructor.
@@ -53,132 +92,338 @@ public class CalcDoc {
 	 * @param spreadsheetDoc Spreadsheet document
 	 */
 	public CalcDoc(XSpreadsheetDocument spreadsheetDoc) throws MduException {
+		super(getUrl(spreadsheetDoc), getNullDate(spreadsheetDoc));
 		this.spreadsheetDoc = spreadsheetDoc;
-		this.urlString = queryInterface(XModel.class, spreadsheetDoc).getURL();
 		this.numberFormats = queryInterface(XNumberFormatsSupplier.class, spreadsheetDoc)
 			.getNumberFormats();
+
+	} // end (XSpreadsheetDocument) constructor
+
+	/**
+	 * @param spreadsheetDoc Spreadsheet document
+	 * @return The URL of spreadsheetDoc
+	 */
+	private static String getUrl(XSpreadsheetDocument spreadsheetDoc) {
+
+		return queryInterface(XModel.class, spreadsheetDoc).getURL();
+	} // end getUrl(XSpreadsheetDocument)
+
+	/**
+	 * @param spreadsheetDoc Spreadsheet document
+	 * @return The date represented by a date value of zero in spreadsheetDoc
+	 */
+	private static LocalDate getNullDate(XSpreadsheetDocument spreadsheetDoc) throws MduException {
+		String urlString = getUrl(spreadsheetDoc);
 		XPropertySet docProps = queryInterface(XPropertySet.class, spreadsheetDoc);
 		if (docProps == null)
-			throw new MduException(null, "Unable to obtain properties for %s", this.urlString);
+			throw new MduException(null, "Unable to obtain properties for %s", urlString);
 
 		Date nullDate;
 		try {
 			nullDate = (Date) docProps.getPropertyValue("NullDate");
 		} catch (Exception e) {
-			throw new MduException(e, "Exception obtaining NullDate for %s", this.urlString);
+			throw new MduException(e, "Exception obtaining NullDate for %s", urlString);
 		}
 		if (nullDate == null)
-			throw new MduException(null, "Unable to obtain NullDate for %s", this.urlString);
-
-		this.zeroDate = LocalDate.of(nullDate.Year, nullDate.Month, nullDate.Day);
+			throw new MduException(null, "Unable to obtain NullDate for %s", urlString);
 
-	} // end (XSpreadsheetDocument) constructor
+		return LocalDate.of(nullDate.Year, nullDate.Month, nullDate.Day);
+	} // end getNullDate(XSpreadsheetDocument)
 
 	/**
-	 * @return A row iterator for the first sheet in the spreadsheet document
+	 * @return The address of the used area of the first sheet in the spreadsheet document
 	 */
-	public XEnumeration getFirstSheetRowIterator() throws MduException {
-		XIndexAccess sheetIndex = getSheets();
-		if (sheetIndex == null)
-			throw new MduException(null, "Unable to index sheets in %s", this.urlString);
-		XSpreadsheet firstSheet;
-
-		try {
-			firstSheet = queryInterface(XSpreadsheet.class, sheetIndex.getByIndex(0));
-		} catch (Exception e) {
-			throw new MduException(e, "Exception obtaining first sheet in %s", this.urlString);
-		}
-		if (firstSheet == null)
-			throw new MduException(null, "Unable to obtain first sheet in %s", this.urlString);
-
-		// get a cursor, so we don't iterator over all the empty rows at the bottom
-		XUsedAreaCursor cur = queryInterface(XUsedAreaCursor.class, firstSheet.createCursor());
+	public CellRangeAddress getUsedArea() throws MduException {
+		// get a cursor, so we don't read all the empty rows at the bottom
+		XUsedAreaCursor cur = queryInterface(XUsedAreaCursor.class, getFirstSheet().createCursor());
 		if (cur == null)
-			throw new MduException(null, "Unable to get cursor in %s", this.urlString);
+			throw new MduException(null, "Unable to get cursor in %s", getUrlString());
 
 		cur.gotoStartOfUsedArea(false); // set the range to a single cell
 		cur.gotoEndOfUsedArea(true); // expand range to include all used area
-		XColumnRowRange colRowRange = queryInterface(XColumnRowRange.class, cur);
-		if (colRowRange == null)
-			throw new MduException(null, "Unable to get column row range in %s", this.urlString);
+		XCellRangeAddressable addressable = queryInterface(XCellRangeAddressable.class, cur);
+		if (addressable == null)
+			throw new MduException(null, "Unable to get used area address in %s", getUrlString());
 
-		XEnumerationAccess rowAccess = queryInterface(XEnumerationAccess.class,
-				colRowRange.getRows());
-		if (rowAccess == null)
-			throw new MduException(null, "Unable to get row enumeration access in %s", this.urlString);
+		return addressable.getRangeAddress();
+	} // end getUsedArea()
+
+	/**
+	 * @param firstColumn Zero-based sheet column index of the range's first column
+	 * @param firstRow    Zero-based sheet row index of the range's first row
+	 * @param lastColumn  Zero-based sheet column index of the range's last column
+	 * @param lastRow     Zero-based sheet row index of the range's last row
+	 * @return The range of cells in the first sheet
+	 */
+	public XCellRange getCellRange(int firstColumn, int firstRow, int lastColumn, int lastRow)
+			throws MduException {
+		try {
 
-		return rowAccess.createEnumeration();
-	} // end getFirstSheetRowIterator()
+			return getFirstSheet().getCellRangeByPosition(firstColumn, firstRow, lastColumn, lastRow);
+		} catch (Exception e) {
+			throw new MduException(e, "Exception obtaining cell range %d, %d to %d, %d in %s",
+				firstColumn, firstRow, lastColumn, lastRow, getUrlString());
+		}
+	} // end getCellRange(int, int, int, int)
 
 	/**
-	 * @return The index access of the sheets in our spreadsheet document
+	 * Read the contents of a range of cells in one request. Numeric cells,
+	 * including formula results, are Double; others are String, empty for
+	 * empty cells.
+	 *
+	 * @param range The range to read
+	 * @return The contents of each cell, by row then column
 	 */
-	public XIndexAccess getSheets() {
+	public Object[][] getDataArray(XCellRange range) throws MduException {
+		XCellRangeData rangeData = queryInterface(XCellRangeData.class, range);
+		if (rangeData == null)
+			throw new MduException(null, "Unable to get cell range data in %s", getUrlString());
 
-		return queryInterface(XIndexAccess.class, this.spreadsheetDoc.getSheets());
-	} // end getSheets()
+		return rangeData.getDataArray();
+	} // end getDataArray(XCellRange)
 
 	/**
-	 * @param dateNum Date value in spreadsheet cell
-	 * @return LocalDate instance corresponding to dateNum
+	 * Read the text displayed in each cell of a column range. Text constants
+	 * and the results of text formulas come from one data array request, and
+	 * one query finds any formulas computing a number, so only those need a
+	 * display string request of their own.
+	 *
+	 * @param column   Zero-based sheet column index
+	 * @param firstRow Zero-based sheet row index of the first row to read
+	 * @param lastRow  Zero-based sheet row index of the last row to read
+	 * @return The text displayed in each cell, null for cells without text
 	 */
-	public LocalDate getLocalDate(double dateNum) {
+	public String[] readColumnText(int column, int firstRow, int lastRow) throws MduException {
+		XCellRange range = getCellRange(column, firstRow, column, lastRow);
+		Object[][] data = getDataArray(range);
+		String[] texts = new String[data.length];
+
+		for (int i = 0; i < data.length; ++i) {
+			if (data[i][0] instanceof String text && !text.isBlank()) {
+				texts[i] = text;
+			}
+		} // end for
+		XCellRangesQuery query = queryInterface(XCellRangesQuery.class, range);
+		if (query == null)
+			throw new MduException(null, "Unable to query cell ranges in %s", getUrlString());
+
+		for (CellRangeAddress address : query.queryFormulaCells(FormulaResult.VALUE)
+				.getRangeAddresses()) {
+			for (int r = address.StartRow; r <= address.EndRow; ++r) {
+				texts[r - firstRow] = CellHandler.asDisplayText(getCell(column, r));
+			}
+		} // end for
 
-		return this.zeroDate.plusDays((long) dateNum);
-	} // end getLocalDate(double)
+		return texts;
+	} // end readColumnText(int, int, int)
 
 	/**
-	 * @param localDate Date the cell should represent
-	 * @return Date number value for the spreadsheet cell
+	 * Read the cell kinds and values of a block of cells using a few range
+	 * requests, rather than several requests for each cell: one for the data,
+	 * one for the cells holding numeric constants and one for the ranges
+	 * sharing each cell format.
+	 *
+	 * @param firstColumn Zero-based sheet column index of the block's first column
+	 * @param firstRow    Zero-based sheet row index of the block's first row
+	 * @param lastColumn  Zero-based sheet column index of the block's last column
+	 * @param lastRow     Zero-based sheet row index of the block's last row
+	 * @return The block's cell kinds and values
 	 */
-	public long getDateNumber(LocalDate localDate) {
+	public CellBlock readBlock(int firstColumn, int firstRow, int lastColumn, int lastRow)
+			throws MduException {
+		XCellRange range = getCellRange(firstColumn, firstRow, lastColumn, lastRow);
+		Object[][] data = getDataArray(range);
+		byte[][] kinds = new byte[lastRow - firstRow + 1][lastColumn - firstColumn + 1];
+		double[][] values = new double[kinds.length][kinds[0].length];
+		XCellRangesQuery query = queryInterface(XCellRangesQuery.class, range);
+		XUniqueCellFormatRangesSupplier formatSupplier =
+			queryInterface(XUniqueCellFormatRangesSupplier.class, range);
+		if (query == null || formatSupplier == null)
+			throw new MduException(null, "Unable to query cell ranges in %s", getUrlString());
+
+		// mark the numeric constants, as getCellKind does, until we know their format
+		for (CellRangeAddress address : query.queryContentCells((short) CellFlags.VALUE)
+				.getRangeAddresses()) {
+			for (int r = address.StartRow; r <= address.EndRow; ++r) {
+				for (int c = address.StartColumn; c <= address.EndColumn; ++c) {
+					kinds[r - firstRow][c - firstColumn] = SheetGrid.FLOAT;
+					values[r - firstRow][c - firstColumn] = (Double) data[r - firstRow][c - firstColumn];
+				}
+			}
+		} // end for
+		XIndexAccess formatRanges = formatSupplier.getUniqueCellFormatRanges();
 
-		return this.zeroDate.until(localDate, DAYS);
-	} // end getDateNumber(LocalDate)
+		for (int i = 0; i < formatRanges.getCount(); ++i) {
+			XSheetCellRanges ranges;
+			try {
+				ranges = queryInterface(XSheetCellRanges.class, formatRanges.getByIndex(i));
+			} catch (Exception e) {
+				throw new MduException(e, "Exception obtaining cell format ranges in %s", getUrlString());
+			}
+			byte kind = getFormatKind(getNumberFormatType(queryInterface(XPropertySet.class, ranges)));
+
+			for (CellRangeAddress address : ranges.getRangeAddresses()) {
+				for (int r = address.StartRow; r <= address.EndRow; ++r) {
+					for (int c = address.StartColumn; c <= address.EndColumn; ++c) {
+						if (kinds[r - firstRow][c - firstColumn] != SheetGrid.NOT_NUMERIC) {
+							kinds[r - firstRow][c - firstColumn] = kind;
+						}
+					}
+				}
+			} // end for
+		} // end for
+
+		return new CellBlock(kinds, values);
+	} // end readBlock(int, int, int, int)
 
 	/**
-	 * Add a cell handler to our list of changes.
+	 * Read the number of decimal places the numeric cells of each column
+	 * display in the supplied rows, from the number format of each range
+	 * sharing a format. Only formats covering numeric constants in those rows
+	 * count; a column showing several of them takes the most decimals.
 	 *
-	 * @param cHandler The cell handler to add
+	 * @param firstColumn Zero-based sheet column index of the first column
+	 * @param lastColumn  Zero-based sheet column index of the last column
+	 * @param sheetRows   Zero-based sheet row indexes of the rows of interest, ascending
+	 * @return Decimal places displayed in each column, -1 where unknown or
+	 * where a General format varies them with the value
 	 */
-	public void addChange(CellHandler cHandler) {
-		if (cHandler != null) {
-			this.changes.add(cHandler);
+	public int[] readDisplayDecimals(int firstColumn, int lastColumn, int[] sheetRows)
+			throws MduException {
+		int firstRow = sheetRows[0];
+		XCellRange range = getCellRange(firstColumn, firstRow, lastColumn,
+			sheetRows[sheetRows.length - 1]);
+		XCellRangesQuery query = queryInterface(XCellRangesQuery.class, range);
+		XUniqueCellFormatRangesSupplier formatSupplier =
+			queryInterface(XUniqueCellFormatRangesSupplier.class, range);
+		if (query == null || formatSupplier == null)
+			throw new MduException(null, "Unable to query cell formats in %s", getUrlString());
+
+		BitSet targetRows = new BitSet();
+
+		for (int sheetRow : sheetRows) {
+			targetRows.set(sheetRow - firstRow);
+		}
+		CellRangeAddress[] numericRanges =
+			query.queryContentCells((short) CellFlags.VALUE).getRangeAddresses();
+		int[] decimals = new int[lastColumn - firstColumn + 1];
+		Arrays.fill(decimals, Integer.MIN_VALUE); // no format seen yet
+		XIndexAccess formatRanges = formatSupplier.getUniqueCellFormatRanges();
+
+		for (int i = 0; i < formatRanges.getCount(); ++i) {
+			XSheetCellRanges ranges;
+			try {
+				ranges = queryInterface(XSheetCellRanges.class, formatRanges.getByIndex(i));
+			} catch (Exception e) {
+				throw new MduException(e, "Exception obtaining cell format ranges in %s", getUrlString());
+			}
+			int formatDecimals = getFormatDecimals(queryInterface(XPropertySet.class, ranges));
+
+			for (CellRangeAddress address : ranges.getRangeAddresses()) {
+				for (CellRangeAddress numeric : numericRanges) {
+					int startRow = Math.max(address.StartRow, numeric.StartRow) - firstRow;
+					int endRow = Math.min(address.EndRow, numeric.EndRow) - firstRow;
+					int nextTarget = startRow > endRow ? -1 : targetRows.nextSetBit(startRow);
+
+					// skip unless the format covers a numeric cell in a row of interest
+					if (nextTarget < 0 || nextTarget > endRow)
+						continue;
+
+					for (int c = Math.max(address.StartColumn, numeric.StartColumn);
+							c <= Math.min(address.EndColumn, numeric.EndColumn); ++c) {
+						int known = decimals[c - firstColumn];
+						decimals[c - firstColumn] = known == -1 || formatDecimals == -1
+							? -1 : Math.max(known, formatDecimals);
+					}
+				} // end for
+			} // end for
+		} // end for
+
+		for (int c = 0; c < decimals.length; ++c) {
+			if (decimals[c] == Integer.MIN_VALUE) {
+				decimals[c] = -1;
+			}
 		}
 
-	} // end addChange(CellHandler)
+		return decimals;
+	} // end readDisplayDecimals(int, int, int[])
 
 	/**
-	 * Commit any changes to the spreadsheet document.
+	 * @param cellProps Properties of cell ranges sharing a format
+	 * @return Decimal places their number format displays, -1 when unknown or General
 	 */
-	public void commitChanges() {
-		this.changes.forEach(CellHandler::applyUpdate);
+	private int getFormatDecimals(XPropertySet cellProps) {
+		XPropertySet cellNumberFormatProps = getNumberFormatProps(cellProps);
+
+		if (cellNumberFormatProps == null)
+			return -1;
 
-	} // end commitChanges()
+		try {
+			// General, whatever its localized name, is the standard format of the number type
+			boolean isGeneral = (Boolean) cellNumberFormatProps.getPropertyValue("StandardFormat")
+				&& ((Short) cellNumberFormatProps.getPropertyValue("Type") & NUMBER) != 0;
+
+			return isGeneral ? -1 : (Short) cellNumberFormatProps.getPropertyValue("Decimals");
+		} catch (Exception e) {
+			MdLog.all("Problem obtaining decimals of cell number format", e);
+
+			return -1;
+		}
+	} // end getFormatDecimals(XPropertySet)
 
 	/**
-	 * Clear out any pending changes.
+	 * @return The first sheet in the spreadsheet document
 	 */
-	public void forgetChanges() {
-		this.changes.clear();
+	private XSpreadsheet getFirstSheet() throws MduException {
+		if (this.firstSheet == null) {
+			XIndexAccess sheetIndex = getSheets();
+			if (sheetIndex == null)
+				throw new MduException(null, "Unable to index sheets in %s", getUrlString());
+			XSpreadsheet sheet;
+
+			try {
+				sheet = queryInterface(XSpreadsheet.class, sheetIndex.getByIndex(0));
+			} catch (Exception e) {
+				throw new MduException(e, "Exception obtaining first sheet in %s", getUrlString());
+			}
+			if (sheet == null)
+				throw new MduException(null, "Unable to obtain first sheet in %s", getUrlString());
+
+			this.firstSheet = sheet;
+		}
 
-	} // end forgetChanges()
+		return this.firstSheet;
+	} // end getFirstSheet()
 
 	/**
-	 * @return True when the spreadsheet has uncommitted changes in memory
+	 * @return The index access of the sheets in our spreadsheet document
 	 */
-	public boolean isModified() {
+	public XIndexAccess getSheets() {
 
-		return !this.changes.isEmpty();
-	} // end isModified()
+		return queryInterface(XIndexAccess.class, this.spreadsheetDoc.getSheets());
+	} // end getSheets()
 
 	/**
-	 * @return A string representation of this CalcDoc
+	 * Obtain a cheap indicator of the document's saved state. It changes
+	 * whenever the document is saved again.
+	 *
+	 * @return Change indicator, or null when the document has unsaved changes
 	 */
-	public String toString() {
+	public String getChangeToken() {
+		XModifiable modifiable = queryInterface(XModifiable.class, this.spreadsheetDoc);
+		XDocumentPropertiesSupplier propsSupplier =
+			queryInterface(XDocumentPropertiesSupplier.class, this.spreadsheetDoc);
+
+		if (modifiable == null || modifiable.isModified() || propsSupplier == null)
+			return null;
+
+		XDocumentProperties props = propsSupplier.getDocumentProperties();
+		DateTime modDate = props.getModificationDate();
 
-		return this.urlString;
-	} // end toString()
+		return "%04d-%02d-%02dT%02d:%02d:%02d.%09d#%d".formatted(modDate.Year, modDate.Month,
+			modDate.Day, modDate.Hours, modDate.Minutes, modDate.Seconds, modDate.NanoSeconds,
+			props.getEditingCycles());
+	} // end getChangeToken()
 
 	/**
 	 * @param cell        The cell to check
@@ -195,8 +440,16 @@ public class CalcDoc {
 	 * @return The cell's number format properties
 	 */
 	public XPropertySet getNumberFormatProps(XCell cell) {
+
+		return getNumberFormatProps(queryInterface(XPropertySet.class, cell));
+	} // end getNumberFormatProps(XCell)
+
+	/**
+	 * @param cellProps Properties of a cell or of cell ranges sharing a format
+	 * @return Their number format properties
+	 */
+	private XPropertySet getNumberFormatProps(XPropertySet cellProps) {
 		XPropertySet cellNumberFormatProps = null;
-		XPropertySet cellProps = queryInterface(XPropertySet.class, cell);
 
 		if (cellProps != null) {
 			try {
@@ -208,14 +461,14 @@ public class CalcDoc {
 		}
 
 		return cellNumberFormatProps;
-	} // end getNumberFormatProps(XCell)
+	} // end getNumberFormatProps(XPropertySet)
 
 	/**
-	 * @param cell The cell to read
-	 * @return The cell's number format type
+	 * @param cellProps Properties of a cell or of cell ranges sharing a format
+	 * @return Their number format type
 	 */
-	private short getNumberFormatType(XCell cell) {
-		XPropertySet cellNumberFormatProps = getNumberFormatProps(cell);
+	private short getNumberFormatType(XPropertySet cellProps) {
+		XPropertySet cellNumberFormatProps = getNumberFormatProps(cellProps);
 
 		if (cellNumberFormatProps == null)
 			return UNDEFINED;
@@ -227,43 +480,240 @@ public class CalcDoc {
 
 			return UNDEFINED;
 		}
-	} // end getNumberFormatType(XCell)
+	} // end getNumberFormatType(XPropertySet)
+
+	/**
+	 * @param cell The cell to read
+	 * @return The kind of numeric content in cell, one of the SheetGrid cell kinds
+	 */
+	public byte getCellKind(XCell cell) {
+		if (isContentType(cell, VALUE))
+			return getFormatKind(getNumberFormatType(queryInterface(XPropertySet.class, cell)));
+
+		return SheetGrid.NOT_NUMERIC;
+	} // end getCellKind(XCell)
+
+	/**
+	 * @param numberFormatType Number format type of a cell holding a numeric constant
+	 * @return The kind of numeric content for that format, one of the SheetGrid cell kinds
+	 */
+	private static byte getFormatKind(short numberFormatType) {
+
+		return (numberFormatType & PERCENT) != 0
+			? SheetGrid.NOT_NUMERIC
+			: (numberFormatType & DATE) != 0
+			? SheetGrid.DATE
+			: (numberFormatType & CURRENCY) != 0
+			? SheetGrid.CURRENCY
+			: SheetGrid.FLOAT;
+	} // end getFormatKind(short)
+
+	/**
+	 * Commit any changes inside one undo context, so the user can undo the
+	 * whole commit in one step. Each block of adjacent staged cells is written
+	 * with one data array request, so the office process records one undo
+	 * action per block instead of one for each cell.
+	 *
+	 * @param monitor Where to report progress and check for cancellation
+	 * @return The dropped changes, whose cells were edited since they were read
+	 */
+	public List<CellHandler> commitChanges(WorkMonitor monitor) {
+		XUndoManagerSupplier undoSupplier =
+			queryInterface(XUndoManagerSupplier.class, this.spreadsheetDoc);
+		XUndoManager undoManager = undoSupplier == null ? null : undoSupplier.getUndoManager();
+
+		if (undoManager != null) {
+			undoManager.enterUndoContext(UNDO_TITLE);
+		}
+		try {
+
+			return super.commitChanges(monitor);
+		} finally {
+			if (undoManager != null) {
+				try {
+					undoManager.leaveUndoContext();
+				} catch (Exception e) {
+					MdLog.all("Problem leaving undo context in %s".formatted(getUrlString()), e);
+				}
+			}
+		}
+	} // end commitChanges(WorkMonitor)
+
+	/**
+	 * Read the value now in each of the supplied cells with one data array
+	 * request per block of them. Staged cells close together in a row form a
+	 * column range, and consecutive rows with the same column range form a
+	 * block, so a column of changes is read in one request without reading
+	 * the unchanged area between scattered cells.
+	 *
+	 * @param cells The cells to read
+	 * @return The numeric value of each cell, NaN for cells no longer numeric
+	 */
+	protected double[] readCurrentValues(List<CellHandler> cells) throws MduException {
+		int[] order = sortByPosition(cells);
+		double[] values = new double[cells.size()];
+
+		for (StagedBlock block : findBlocks(cells, order, MAX_READ_GAP)) {
+			Object[][] data = getDataArray(getCellRange(block.firstColumn(), block.firstRow(),
+				block.lastColumn(), block.lastRow()));
+
+			for (int i = block.start(); i < block.end(); ++i) {
+				CellHandler cell = cells.get(order[i]);
+				values[order[i]] = data[cell.row - block.firstRow()][cell.column - block.firstColumn()]
+					instanceof Double value ? value : Double.NaN;
+			} // end for
+		} // end for
+
+		return values;
+	} // end readCurrentValues(List<CellHandler>)
 
 	/**
-	 * @param row   Office Row instance
-	 * @param index Zero-based index to use
-	 * @return CellHandler instance for the cell at zero-based index in the supplied row
+	 * Write the new values of a batch of staged cells with one data array
+	 * request per block of adjacent cells. Cells in a row with no gap between
+	 * form a column range, and consecutive rows with the same column range
+	 * form a block, so no unstaged cell is overwritten.
+	 *
+	 * @param batch The cells to write, in staged order
 	 */
-	public CellHandler getCellHandlerByIndex(XCellRange row, int index) {
-		XCell cell = getCellByIndex(row, index);
+	protected void applyUpdates(List<CellHandler> batch) {
+		List<CellHandler> cells = batch.stream().filter(CellHandler::hasNewValue).toList();
+		int[] order = sortByPosition(cells);
+
+		for (StagedBlock block : findBlocks(cells, order, 0)) {
+			Object[][] data = new Object[block.lastRow() - block.firstRow() + 1]
+				[block.lastColumn() - block.firstColumn() + 1];
+
+			for (int i = block.start(); i < block.end(); ++i) {
+				CellHandler cell = cells.get(order[i]);
+				data[cell.row - block.firstRow()][cell.column - block.firstColumn()] =
+					cell.getNewCellValue();
+			} // end for
+			try {
+				XCellRangeData rangeData = queryInterface(XCellRangeData.class, getCellRange(
+					block.firstColumn(), block.firstRow(), block.lastColumn(), block.lastRow()));
+				if (rangeData == null)
+					throw new MduException(null, "Unable to get cell range data in %s", getUrlString());
+
+				rangeData.setDataArray(data);
+			} catch (MduException e) {
+				MdLog.all("Problem writing cell block; writing its cells one at a time", e);
+
+				for (int i = block.start(); i < block.end(); ++i) {
+					cells.get(order[i]).applyUpdate();
+				}
+			}
+		} // end for
+
+	} // end applyUpdates(List<CellHandler>)
 
-		if (isContentType(cell, VALUE)) {
-			short numberFormatType = getNumberFormatType(cell);
+	/**
+	 * @param cells Staged cells
+	 * @return Indexes of cells sorted by row, then column, keeping staged order for the same cell
+	 */
+	private static int[] sortByPosition(List<CellHandler> cells) {
+
+		return IntStream.range(0, cells.size()).boxed()
+			.sorted(Comparator.comparingInt((Integer i) -> cells.get(i).row)
+				.thenComparingInt(i -> cells.get(i).column))
+			.mapToInt(Integer::intValue).toArray();
+	} // end sortByPosition(List<CellHandler>)
+
+	/**
+	 * Group staged cells into blocks. Cells close together in a row form a
+	 * column range, and consecutive rows with the same column range form a
+	 * block.
+	 *
+	 * @param cells  Staged cells
+	 * @param order  Indexes of cells sorted by row, then column
+	 * @param maxGap Most cells between two staged cells of a column range
+	 * @return The blocks, in sorted order
+	 */
+	private static List<StagedBlock> findBlocks(List<CellHandler> cells, int[] order, int maxGap) {
+		List<StagedBlock> blocks = new ArrayList<>();
+		int blockStart = 0;
+
+		while (blockStart < order.length) {
+			CellHandler first = cells.get(order[blockStart]);
+			int rangeEnd = endOfColumnRange(cells, order, blockStart, maxGap);
+			int lastColumn = cells.get(order[rangeEnd - 1]).column;
+			int lastRow = first.row;
+			int blockEnd = rangeEnd;
+
+			// add following rows with the same column range
+			for (int next = blockEnd; next < order.length; next = blockEnd) {
+				CellHandler nextFirst = cells.get(order[next]);
+				int nextEnd = endOfColumnRange(cells, order, next, maxGap);
+
+				if (nextFirst.row != lastRow + 1 || nextFirst.column != first.column
+						|| cells.get(order[nextEnd - 1]).column != lastColumn)
+					break;
+
+				lastRow = nextFirst.row;
+				blockEnd = nextEnd;
+			} // end for
+			blocks.add(new StagedBlock(blockStart, blockEnd, first.column, first.row, lastColumn,
+				lastRow));
+			blockStart = blockEnd;
+		} // end while
+
+		return blocks;
+	} // end findBlocks(List<CellHandler>, int[], int)
+
+	/**
+	 * @param cells  Staged cells
+	 * @param order  Indexes of cells sorted by row, then column
+	 * @param start  Position in order of the first cell of a column range
+	 * @param maxGap Most cells between two staged cells of the range
+	 * @return Position in order just past the last cell of the range: later
+	 * cells in the same row with no more than maxGap cells between
+	 */
+	private static int endOfColumnRange(List<CellHandler> cells, int[] order, int start,
+			int maxGap) {
+		CellHandler prior = cells.get(order[start]);
+		int end = start + 1;
+
+		while (end < order.length) {
+			CellHandler cell = cells.get(order[end]);
+
+			if (cell.row != prior.row || cell.column - prior.column > maxGap + 1)
+				break;
+
+			prior = cell;
+			++end;
+		} // end while
+
+		return end;
+	} // end endOfColumnRange(List<CellHandler>, int[], int, int)
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @param value  The value to save in the cell at the supplied position in the first sheet
+	 */
+	public void setCellValue(int column, int row, double value) {
+		XCell cell = getCell(column, row);
 
-			return (numberFormatType & PERCENT) != 0
-				? null
-				: (numberFormatType & DATE) != 0
-				? new DateCellHandler(cell, this)
-				: new FloatCellHandler(cell, this, (numberFormatType & CURRENCY) != 0);
+		if (cell != null) {
+			cell.setValue(value);
 		}
 
-		return null;
-	} // end getCellHandlerByIndex(XCellRange, int)
+	} // end setCellValue(int, int, double)
 
 	/**
-	 * @param row   Office Row instance
-	 * @param index Zero-based index to use
-	 * @return Cell at zero-based index in the supplied row
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @return Cell at the supplied position in the first sheet
 	 */
-	public XCell getCellByIndex(XCellRange row, int index) {
+	public XCell getCell(int column, int row) {
 		try {
 
-			return row.getCellByPosition(index, 0);
+			return getFirstSheet().getCellByPosition(column, row);
 		} catch (Exception e) {
-			MdLog.all("Problem obtaining cell %d in row: %s".formatted(index, row), e);
+			MdLog.all("Problem obtaining cell %d in row %d of %s"
+				.formatted(column, row, getUrlString()), e);
 
 			return null;
 		}
-	} // end getCellByIndex(XCellRange, int)
+	} // end getCell(int, int)
 
 } // end class CalcDoc
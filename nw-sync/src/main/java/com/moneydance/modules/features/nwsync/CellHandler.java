@@ -8,8 +8,6 @@ import static com.sun.star.uno.UnoRuntime.queryInterface;
 import java.time.LocalDate;
 
 import com.leastlogic.moneydance.util.MdUtil;
-import com.sun.star.sheet.XCellAddressable;
-import com.sun.star.table.CellAddress;
 import com.sun.star.table.XCell;
 import com.sun.star.text.XText;
 
@@ -24,8 +22,9 @@ public abstract class CellHandler {
 	public static class FloatCellHandler extends CellHandler {
 		private final boolean isCurrency;
 
-		public FloatCellHandler(XCell cell, CalcDoc calcDoc, boolean isCurrency) {
-			super(cell, calcDoc);
+		public FloatCellHandler(SheetDoc sheetDoc, int column, int row, double cellValue,
+				boolean isCurrency) {
+			super(sheetDoc, column, row, cellValue);
 			this.isCurrency = isCurrency;
 
 		} // end constructor
@@ -34,19 +33,35 @@ public abstract class CellHandler {
 		 * @return The numeric value of this cell as a Double
 		 */
 		public Double getValue() {
-			return this.cell.getValue();
+			return this.cellValue;
 		} // end getValue()
 
+		/**
+		 * @return The numeric value of this cell, without boxing
+		 */
+		public double getDoubleValue() {
+			return this.cellValue;
+		} // end getDoubleValue()
+
 		/**
 		 * @param value The double value to save in this cell
 		 */
 		public void setValue(Number value) {
 			if (value != null) {
-				this.cell.setValue(value.doubleValue());
+				this.sheetDoc.setCellValue(this.column, this.row, toCellValue(value));
 			}
 
 		} // end setValue(Number)
 
+		/**
+		 * @param value A double value
+		 * @return The number to store in this cell for value
+		 */
+		protected double toCellValue(Number value) {
+
+			return value.doubleValue();
+		} // end toCellValue(Number)
+
 		/**
 		 * @return true when this cell's number format type is currency
 		 */
@@ -60,10 +75,10 @@ public abstract class CellHandler {
 	 * Provide read and write access to date spreadsheet cells.
 	 */
 	public static class DateCellHandler extends CellHandler {
-		public DateCellHandler(XCell cell, CalcDoc calcDoc) {
-			super(cell, calcDoc);
+		public DateCellHandler(SheetDoc sheetDoc, int column, int row, double cellValue) {
+			super(sheetDoc, column, row, cellValue);
 
-		} // end (XCell, CalcDoc) constructor
+		} // end (SheetDoc, int, int, double) constructor
 
 		/**
 		 * @return The numeric date value of this cell in decimal form YYYYMMDD
@@ -77,7 +92,7 @@ public abstract class CellHandler {
 		 */
 		public LocalDate getDateValue() {
 
-			return this.calcDoc.getLocalDate(this.cell.getValue());
+			return this.sheetDoc.getLocalDate(this.cellValue);
 		} // end getDateValue()
 
 		/**
@@ -85,13 +100,21 @@ public abstract class CellHandler {
 		 */
 		public void setValue(Number value) {
 			if (value != null) {
-				LocalDate localDate = MdUtil.convDateIntToLocal(value.intValue());
-				long dateNum = this.calcDoc.getDateNumber(localDate);
-				this.cell.setValue(dateNum);
+				this.sheetDoc.setCellValue(this.column, this.row, toCellValue(value));
 			}
 
 		} // end setValue(Number)
 
+		/**
+		 * @param value A numeric date value in decimal form YYYYMMDD
+		 * @return The date number to store in this cell for value
+		 */
+		protected double toCellValue(Number value) {
+			LocalDate localDate = MdUtil.convDateIntToLocal(value.intValue());
+
+			return this.sheetDoc.getDateNumber(localDate);
+		} // end toCellValue(Number)
+
 		/**
 		 * @return false since this is a date cell
 		 */
@@ -101,21 +124,28 @@ public abstract class CellHandler {
 
 	} // end class DateCellHandler
 
-	protected XCell cell;
-	protected CalcDoc calcDoc;
+	protected final SheetDoc sheetDoc;
+	protected final int column;
+	protected final int row;
+	protected final double cellValue;
 	private Number newValue = null;
 
 	/**
-	 * Sole constructor.
+	 * Sole constructor. The document cell is only located when it is written,
+	 * so handlers can be created from a grid read earlier.
 	 *
-	 * @param cell    Office Cell instance to be handled
-	 * @param calcDoc Local spreadsheet document containing this cell
+	 * @param sheetDoc  Local spreadsheet document containing this cell
+	 * @param column    Zero-based sheet column of this cell
+	 * @param row       Zero-based sheet row of this cell
+	 * @param cellValue The numeric value of this cell when it was read
 	 */
-	public CellHandler(XCell cell, CalcDoc calcDoc) {
-		this.cell = cell;
-		this.calcDoc = calcDoc;
+	public CellHandler(SheetDoc sheetDoc, int column, int row, double cellValue) {
+		this.sheetDoc = sheetDoc;
+		this.column = column;
+		this.row = row;
+		this.cellValue = cellValue;
 
-	} // end (XCell, CalcDoc) constructor
+	} // end (SheetDoc, int, int, double) constructor
 
 	/**
 	 * @return The numeric value of this cell
@@ -132,15 +162,57 @@ public abstract class CellHandler {
 	 */
 	public abstract boolean isCurrency();
 
+	/**
+	 * @param value A value of the kind this cell holds
+	 * @return The number to store in the document cell for value
+	 */
+	protected abstract double toCellValue(Number value);
+
 	/**
 	 * @param newValue New value to save for later application
 	 */
 	public void setNewValue(Number newValue) {
-		this.newValue = newValue;
-		this.calcDoc.addChange(this);
+		holdNewValue(newValue);
+		this.sheetDoc.addChange(this);
 
 	} // end setNewValue(Number)
 
+	/**
+	 * Save a new value without adding this cell to its document's changes.
+	 * Safe to call from any thread for distinct cell handlers.
+	 *
+	 * @param newValue New value to save for later application
+	 */
+	public void holdNewValue(Number newValue) {
+		this.newValue = newValue;
+
+	} // end holdNewValue(Number)
+
+	/**
+	 * @param currentValue The value now in this cell's document, NaN when not numeric
+	 * @return True when the cell still holds the value read before a new value was set
+	 */
+	public boolean isUnchanged(double currentValue) {
+
+		return Double.doubleToLongBits(currentValue) == Double.doubleToLongBits(this.cellValue);
+	} // end isUnchanged(double)
+
+	/**
+	 * @return True when a new value has been set
+	 */
+	public boolean hasNewValue() {
+
+		return this.newValue != null;
+	} // end hasNewValue()
+
+	/**
+	 * @return The number to store in the document cell for the new value, when one has been set
+	 */
+	public double getNewCellValue() {
+
+		return toCellValue(this.newValue);
+	} // end getNewCellValue()
+
 	/**
 	 * Apply any previously set new value.
 	 */
@@ -153,15 +225,9 @@ public abstract class CellHandler {
 	 * @return A string representation of this CellHandler
 	 */
 	public String toString() {
-		StringBuilder sb = new StringBuilder(asDisplayText(this.cell));
-		XCellAddressable addressable = queryInterface(XCellAddressable.class, this.cell);
-		CellAddress cellAdr = addressable == null ? null : addressable.getCellAddress();
-
-		if (cellAdr != null) {
-			sb.append('[').append(cellAdr.Column)
-			  .append(", ").append(cellAdr.Row)
-			  .append(", ").append(cellAdr.Sheet).append(']');
-		}
+		StringBuilder sb = new StringBuilder(Double.toString(this.cellValue));
+		sb.append('[').append(this.column)
+		  .append(", ").append(this.row).append(']');
 
 		return sb.toString();
 	} // end toString()
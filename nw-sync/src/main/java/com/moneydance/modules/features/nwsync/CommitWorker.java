@@ -0,0 +1,138 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+import com.leastlogic.moneydance.util.MdLog;
+
+/**
+ * Commits staged changes on a worker thread, so writing many cells never
+ * blocks the event dispatch thread. Changes not yet written when cancelled
+ * stay staged.
+ */
+public class CommitWorker extends SwingWorker<Optional<String>, Void> implements WorkMonitor {
+	private final NwSyncConsole syncConsole;
+	private final SyncAccessor odsAcc;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final CompletableFuture<Void> finished = new CompletableFuture<>();
+	private volatile String cancelText = "Commit cancelled; changes not yet written remain staged";
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param syncConsole Our NW sync console
+	 * @param odsAcc      The accessor holding the staged changes
+	 */
+	private CommitWorker(NwSyncConsole syncConsole, SyncAccessor odsAcc) {
+		super();
+		this.syncConsole = syncConsole;
+		this.odsAcc = odsAcc;
+
+	} // end (NwSyncConsole, SyncAccessor) constructor
+
+	/**
+	 * Create a commit worker that shows its progress in our console.
+	 *
+	 * @param syncConsole Our NW sync console
+	 * @param odsAcc      The accessor holding the staged changes
+	 * @return The new commit worker
+	 */
+	public static CommitWorker create(NwSyncConsole syncConsole, SyncAccessor odsAcc) {
+		CommitWorker worker = new CommitWorker(syncConsole, odsAcc);
+		worker.addPropertyChangeListener(event -> {
+			if ("progress".equals(event.getPropertyName())) {
+				syncConsole.setProgress((Integer) event.getNewValue());
+			}
+		});
+
+		return worker;
+	} // end create(NwSyncConsole, SyncAccessor)
+
+	/**
+	 * Write the staged changes. Runs on worker thread.
+	 *
+	 * @return Optional summary of the changes committed
+	 */
+	protected Optional<String> doInBackground() throws Exception {
+		if (!this.started.compareAndSet(false, true))
+			return Optional.empty(); // cancelled before we started
+
+		try {
+
+			return this.odsAcc.commitChanges(this);
+		} catch (CancellationException e) {
+			if (e.getMessage() != null) {
+				this.cancelText = e.getMessage();
+			}
+			throw e;
+		} finally {
+			this.finished.complete(null);
+		}
+	} // end doInBackground()
+
+	/**
+	 * Show the outcome and re-enable the commit button for any changes left.
+	 * Runs on event dispatch thread after the doInBackground method is finished.
+	 */
+	protected void done() {
+		try {
+			get().ifPresent(summary -> {
+				MdLog.all(summary);
+				this.syncConsole.addText(summary);
+			});
+		} catch (CancellationException e) {
+			MdLog.all(this.cancelText);
+			this.syncConsole.addText(this.cancelText);
+		} catch (Exception e) {
+			MdLog.all("Problem committing changes", e);
+			this.syncConsole.addText(e.toString());
+		}
+		this.syncConsole.enableCommitButton(this.odsAcc.isModified());
+
+	} // end done()
+
+	/**
+	 * Cooperative cancellation checkpoint. Runs on worker thread.
+	 *
+	 * @throws CancellationException when this worker has been cancelled
+	 */
+	public void checkCancelled() {
+		if (isCancelled())
+			throw new CancellationException("Commit cancelled");
+
+	} // end checkCancelled()
+
+	/**
+	 * Report progress as a percentage. Runs on worker thread.
+	 *
+	 * @param done  Units of work done so far
+	 * @param total Total units of work
+	 */
+	public void reportProgress(int done, int total) {
+		if (total > 0) {
+			setProgress(Math.min(100, (int) (100L * done / total)));
+		}
+
+	} // end reportProgress(int, int)
+
+	/**
+	 * Cancel this worker without waiting for it.
+	 *
+	 * @return Future completed once this worker is no longer using the document
+	 */
+	public CompletableFuture<Void> cancelCommit() {
+		cancel(false);
+
+		if (this.started.compareAndSet(false, true)) {
+			// never started, so nothing will complete finished
+			this.finished.complete(null);
+		}
+
+		return this.finished;
+	} // end cancelCommit()
+
+} // end class CommitWorker
@@ -0,0 +1,271 @@
+package com.moneydance.modules.features.nwsync;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.leastlogic.moneydance.util.MduException;
+import com.moneydance.modules.features.nwsync.SyncEvent.ValueKind;
+
+/**
+ * Reads and writes the changes a sync found as a CSV or JSON file, chosen by
+ * the file's extension, so they can be reviewed offline and applied later.
+ */
+public class DiffFile {
+	private final Path path;
+	private final boolean isJson;
+
+	private static final String[] FIELDS = { "key", "date", "kind", "oldValue", "newValue", "column", "row" };
+	private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+	/**
+	 * One changed spreadsheet cell. Date cell values are in decimal form YYYYMMDD.
+	 *
+	 * @param key      The spreadsheet name of the row
+	 * @param date     The date of the cell's column
+	 * @param kind     Price, balance or date
+	 * @param oldValue The spreadsheet value
+	 * @param newValue The new value
+	 * @param column   Zero-based sheet column of the cell
+	 * @param row      Zero-based sheet row of the cell
+	 */
+	public record DiffEntry(String key, LocalDate date, ValueKind kind, BigDecimal oldValue,
+		BigDecimal newValue, int column, int row) {
+	} // end record DiffEntry
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param path Location of the file, ending in .json for JSON, otherwise CSV
+	 */
+	public DiffFile(Path path) {
+		this.path = path;
+		this.isJson = path.getFileName().toString().toLowerCase().endsWith(".json");
+
+	} // end constructor
+
+	/**
+	 * @param entries The changes to write
+	 */
+	public void write(List<DiffEntry> entries) throws MduException {
+		try {
+			Files.createDirectories(this.path.toAbsolutePath().getParent());
+		} catch (IOException e) {
+			throw new MduException(e, "Exception creating folder for %s", this.path);
+		}
+
+		try (BufferedWriter out = Files.newBufferedWriter(this.path, UTF_8)) {
+			if (this.isJson) {
+				JsonArray array = new JsonArray();
+
+				for (DiffEntry entry : entries) {
+					array.add(toJson(toFields(entry)));
+				}
+				gson.toJson(array, out);
+				out.newLine();
+			} else {
+				out.write(String.join(",", FIELDS));
+				out.newLine();
+
+				for (DiffEntry entry : entries) {
+					writeCsv(out, toFields(entry));
+				}
+			}
+		} catch (IOException | JsonIOException e) {
+			throw new MduException(e, "Exception writing %s", this.path);
+		}
+
+	} // end write(List<DiffEntry>)
+
+	/**
+	 * @return The changes in the file
+	 */
+	public List<DiffEntry> read() throws MduException {
+		List<DiffEntry> entries = new ArrayList<>();
+
+		try (BufferedReader in = Files.newBufferedReader(this.path, UTF_8)) {
+			if (this.isJson) {
+				for (JsonElement element : JsonParser.parseReader(in).getAsJsonArray()) {
+					List<String> fields = fromJson(element);
+
+					if (fields.size() == FIELDS.length) {
+						entries.add(fromFields(fields));
+					}
+				} // end for
+			} else {
+				in.readLine(); // skip header
+				List<String> fields;
+
+				while ((fields = readCsv(in)) != null) {
+					if (fields.size() == FIELDS.length) {
+						entries.add(fromFields(fields));
+					}
+				} // end while
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new MduException(e, "Exception reading %s", this.path);
+		}
+
+		return entries;
+	} // end read()
+
+	/**
+	 * @param entry The change to convert
+	 * @return Field values in FIELDS order
+	 */
+	private static List<String> toFields(DiffEntry entry) {
+
+		return List.of(entry.key(), entry.date().toString(), entry.kind().name(),
+			entry.oldValue().toPlainString(), entry.newValue().toPlainString(),
+			Integer.toString(entry.column()), Integer.toString(entry.row()));
+	} // end toFields(DiffEntry)
+
+	/**
+	 * @param fields Field values in FIELDS order
+	 * @return The change they describe
+	 */
+	private static DiffEntry fromFields(List<String> fields) {
+
+		return new DiffEntry(fields.get(0), LocalDate.parse(fields.get(1)),
+			ValueKind.valueOf(fields.get(2)), new BigDecimal(fields.get(3)),
+			new BigDecimal(fields.get(4)), Integer.parseInt(fields.get(5)),
+			Integer.parseInt(fields.get(6)));
+	} // end fromFields(List<String>)
+
+	/**
+	 * @param out    Where to write
+	 * @param fields Field values in FIELDS order
+	 */
+	private static void writeCsv(BufferedWriter out, List<String> fields) throws IOException {
+		for (int i = 0; i < fields.size(); ++i) {
+			String field = fields.get(i);
+
+			if (i > 0) {
+				out.write(',');
+			}
+			if (field.matches("(?s).*[,\"\r\n].*")) {
+				out.write('"' + field.replace("\"", "\"\"") + '"');
+			} else {
+				out.write(field);
+			}
+		} // end for
+		out.newLine();
+
+	} // end writeCsv(BufferedWriter, List<String>)
+
+	/**
+	 * Read one CSV record, which continues onto following lines while a
+	 * quoted field holds line breaks.
+	 *
+	 * @param in Where to read
+	 * @return The record's field values, or null at the end of input
+	 */
+	private static List<String> readCsv(BufferedReader in) throws IOException {
+		String line = in.readLine();
+
+		if (line == null)
+			return null;
+
+		List<String> fields = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		boolean inQuotes = false;
+
+		for (int i = 0; ; ++i) {
+			if (i == line.length()) {
+				if (!inQuotes)
+					break;
+
+				// a quoted field continues on the next line
+				line = in.readLine();
+				if (line == null)
+					throw new IOException("Unterminated quoted field");
+
+				sb.append('\n');
+				i = -1;
+
+				continue;
+			}
+			char c = line.charAt(i);
+
+			if (inQuotes) {
+				if (c != '"') {
+					sb.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					sb.append(c);
+					++i;
+				} else {
+					inQuotes = false;
+				}
+			} else if (c == '"') {
+				inQuotes = true;
+			} else if (c == ',') {
+				fields.add(sb.toString());
+				sb.setLength(0);
+			} else {
+				sb.append(c);
+			}
+		} // end for
+		fields.add(sb.toString());
+
+		return fields;
+	} // end readCsv(BufferedReader)
+
+	/**
+	 * @param fields Field values in FIELDS order
+	 * @return A JSON object with a string member for each field
+	 */
+	private static JsonObject toJson(List<String> fields) {
+		JsonObject object = new JsonObject();
+
+		for (int i = 0; i < fields.size(); ++i) {
+			object.addProperty(FIELDS[i], fields.get(i));
+		}
+
+		return object;
+	} // end toJson(List<String>)
+
+	/**
+	 * @param element One element of the file's array
+	 * @return Its field values in FIELDS order, or fewer when it is not a
+	 * change object
+	 */
+	private static List<String> fromJson(JsonElement element) {
+		List<String> fields = new ArrayList<>();
+
+		if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+
+			for (String field : FIELDS) {
+				if (object.has(field)) {
+					fields.add(object.get(field).getAsString());
+				}
+			}
+		}
+
+		return fields;
+	} // end fromJson(JsonElement)
+
+	/**
+	 * @return A string representation of this DiffFile
+	 */
+	public String toString() {
+
+		return this.path.toString();
+	} // end toString()
+
+} // end class DiffFile
@@ -0,0 +1,216 @@
+package com.moneydance.modules.features.nwsync;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.moneydance.modules.features.nwsync.SheetGrid.GridRow;
+
+/**
+ * Keeps the last grid read from each spreadsheet document in a compact binary
+ * file, so an unchanged document can be loaded without the office bridge.
+ */
+public class GridCache {
+	private final Path cacheDir;
+
+	private static final int MAGIC = 0x4E574752; // "NWGR"
+	private static final int VERSION = 2;
+	/** Cache files of documents not synchronized for this long are deleted */
+	private static final Duration STALE_AGE = Duration.ofDays(60);
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param cacheDir Directory to hold cache files
+	 */
+	public GridCache(Path cacheDir) {
+		this.cacheDir = cacheDir;
+
+	} // end constructor
+
+	/**
+	 * @param url         Document URL
+	 * @param changeToken Indicator of the document's saved state
+	 * @return The cached grid, when one was saved for the same URL and change token
+	 */
+	public Optional<SheetGrid> load(String url, String changeToken) {
+		Path cacheFile = getCacheFile(url);
+
+		if (changeToken == null || !Files.isReadable(cacheFile))
+			return Optional.empty();
+
+		try {
+			// read into the heap; a live mapping would block replacing the file on Windows
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+					|| !url.equals(getString(buf)) || !changeToken.equals(getString(buf)))
+				return Optional.empty();
+
+			int keyColumn = buf.getInt();
+			GridRow dateRow = getRow(buf);
+			int numRows = buf.getInt();
+			List<GridRow> rows = new ArrayList<>(numRows);
+
+			for (int i = 0; i < numRows; ++i) {
+				rows.add(getRow(buf));
+			}
+			int numIgnored = buf.getInt();
+			List<String> ignoredKeys = new ArrayList<>(numIgnored);
+
+			for (int i = 0; i < numIgnored; ++i) {
+				ignoredKeys.add(getString(buf));
+			}
+
+			return Optional.of(new SheetGrid(keyColumn, dateRow, rows, ignoredKeys));
+		} catch (Exception e) {
+			MdLog.all("Problem reading grid cache %s".formatted(cacheFile), e);
+
+			return Optional.empty();
+		}
+	} // end load(String, String)
+
+	/**
+	 * @param url         Document URL
+	 * @param changeToken Indicator of the document's saved state, null to skip caching
+	 * @param grid        The grid to cache
+	 */
+	public void save(String url, String changeToken, SheetGrid grid) {
+		if (changeToken == null)
+			return;
+
+		Path cacheFile = getCacheFile(url);
+
+		try {
+			Files.createDirectories(this.cacheDir);
+			Path tempFile = Files.createTempFile(this.cacheDir, "grid", ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				putString(out, url);
+				putString(out, changeToken);
+				out.writeInt(grid.getKeyColumn());
+				putRow(out, grid.getDateRow());
+				out.writeInt(grid.getRows().size());
+
+				for (GridRow row : grid.getRows()) {
+					putRow(out, row);
+				}
+				out.writeInt(grid.getIgnoredKeys().size());
+
+				for (String key : grid.getIgnoredKeys()) {
+					putString(out, key);
+				}
+			} // end try-with-resources
+			Files.move(tempFile, cacheFile, REPLACE_EXISTING, ATOMIC_MOVE);
+		} catch (Exception e) {
+			MdLog.all("Problem writing grid cache %s".formatted(cacheFile), e);
+		}
+		pruneStale(cacheFile);
+
+	} // end save(String, String, SheetGrid)
+
+	/**
+	 * Delete cache files, and temporary files left by failed saves, that have
+	 * not been written for a long time.
+	 *
+	 * @param currentFile The cache file just written, which is kept
+	 */
+	private void pruneStale(Path currentFile) {
+		FileTime cutoff = FileTime.from(Instant.now().minus(STALE_AGE));
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.cacheDir, "grid*.{bin,tmp}")) {
+			for (Path file : files) {
+				if (!file.equals(currentFile)
+						&& Files.getLastModifiedTime(file).compareTo(cutoff) < 0) {
+					Files.deleteIfExists(file);
+					MdLog.debug("Deleted stale grid cache " + file.getFileName());
+				}
+			} // end for
+		} catch (Exception e) {
+			MdLog.all("Problem pruning grid cache directory %s".formatted(this.cacheDir), e);
+		}
+
+	} // end pruneStale(Path)
+
+	/**
+	 * @param url Document URL
+	 * @return The cache file for url
+	 */
+	private Path getCacheFile(String url) {
+
+		return this.cacheDir.resolve("grid-%08x.bin".formatted(url.hashCode()));
+	} // end getCacheFile(String)
+
+	/**
+	 * @param buf Buffer positioned at a row
+	 * @return The row read from buf
+	 */
+	private static GridRow getRow(ByteBuffer buf) {
+		int sheetRow = buf.getInt();
+		String key = getString(buf);
+		byte[] kinds = new byte[buf.getInt()];
+		buf.get(kinds);
+		double[] values = new double[kinds.length];
+		buf.asDoubleBuffer().get(values);
+		buf.position(buf.position() + values.length * Double.BYTES);
+
+		return new GridRow(sheetRow, key, kinds, values);
+	} // end getRow(ByteBuffer)
+
+	/**
+	 * @param out Where to write
+	 * @param row The row to write
+	 */
+	private static void putRow(DataOutputStream out, GridRow row) throws IOException {
+		out.writeInt(row.sheetRow());
+		putString(out, row.key());
+		out.writeInt(row.kinds().length);
+		out.write(row.kinds());
+
+		for (double value : row.values()) {
+			out.writeDouble(value);
+		}
+
+	} // end putRow(DataOutputStream, GridRow)
+
+	/**
+	 * @param buf Buffer positioned at a string
+	 * @return The string read from buf
+	 */
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+
+		return new String(bytes, UTF_8);
+	} // end getString(ByteBuffer)
+
+	/**
+	 * @param out Where to write
+	 * @param str The string to write
+	 */
+	private static void putString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+
+	} // end putString(DataOutputStream, String)
+
+} // end class GridCache
@@ -0,0 +1,776 @@
+package com.moneydance.modules.features.nwsync;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.Account;
+import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.moneydance.model.AccountListener;
+import com.infinitekind.moneydance.model.CurrencyListener;
+import com.infinitekind.moneydance.model.CurrencySnapshot;
+import com.infinitekind.moneydance.model.CurrencyTable;
+import com.infinitekind.moneydance.model.CurrencyType;
+import com.infinitekind.moneydance.model.ParentTxn;
+import com.infinitekind.moneydance.model.SplitTxn;
+import com.infinitekind.moneydance.model.TransactionListener;
+import com.leastlogic.moneydance.util.MdLog;
+
+/**
+ * Append-only store of the values each account and security had on the
+ * spreadsheet's dates. Each series is a column file of fixed size records in
+ * ascending date order, held in memory and written through to the file. A
+ * series is verified against values computed from Moneydance once, then
+ * served from the store and kept valid by Moneydance change listeners.
+ * Closing the store records a stamp of the account book, so the next session
+ * trusts the series verified in this one when the book still matches.
+ */
+public class HistoryStore
+		implements TransactionListener, CurrencyListener, AccountListener, AutoCloseable {
+	private final AccountBook book;
+	private final Path storeDir;
+	private final Map<String, Column> columns = new HashMap<>();
+	private final Set<String> verified = new HashSet<>();
+	/** Series verified in a prior session, loaded on first use */
+	private Set<String> trusted = null;
+	/** Start balance and parent of each account, to tell which account edits change balances */
+	private final Map<Account, AccountShape> accountShapes = new HashMap<>();
+	/** Counts invalidations, so values computed before one are not recorded as verified */
+	private long generation = 0;
+
+	private static final int MAGIC = 0x4E574853; // "NWHS"
+	private static final int VERSION = 1;
+	private static final int STAMP_VERSION = 3;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int STAMP_MAGIC = 0x4E575354; // "NWST"
+	private static final String STAMP_FILE = "book.stamp";
+
+	/**
+	 * The parts of an account that its balances depend on besides its
+	 * transactions.
+	 *
+	 * @param startBalance The account's start balance
+	 * @param parent       The account's parent account
+	 */
+	private record AccountShape(long startBalance, Account parent) {
+
+		/**
+		 * @param account Moneydance account
+		 * @return The current shape of account
+		 */
+		private static AccountShape of(Account account) {
+
+			return new AccountShape(account.getStartBalance(), account.getParentAccount());
+		} // end of(Account)
+
+	} // end record AccountShape
+
+	/**
+	 * Summary of the accounts, transactions and price snapshots in an account
+	 * book, cheap to compute and likely to change with any edit of them that
+	 * changes a balance or price.
+	 *
+	 * @param numAccounts  Number of accounts
+	 * @param accountSum   Sum over accounts of a mix of start balance, parent and account
+	 * @param numTxns      Number of transactions
+	 * @param txnSum       Sum over transactions of a mix of date, value and account
+	 * @param numSnapshots Number of price snapshots
+	 * @param snapshotSum  Sum over snapshots of a mix of date and rate
+	 */
+	private record BookStamp(int numAccounts, long accountSum, int numTxns, long txnSum,
+			int numSnapshots, long snapshotSum) {
+
+		/**
+		 * @param book Moneydance account book
+		 * @return The current stamp of book
+		 */
+		private static BookStamp of(AccountBook book) {
+			int numAccounts = 0;
+			long accountSum = 0;
+
+			for (Account account : getAllAccounts(book)) {
+				Account parent = account.getParentAccount();
+				++numAccounts;
+				accountSum += account.getStartBalance() * 1_000_003L
+					+ (parent == null ? 0 : parent.getUUID().hashCode()) * 31L
+					+ account.getUUID().hashCode();
+			}
+			int numTxns = 0;
+			long txnSum = 0;
+
+			for (AbstractTxn txn : book.getTransactionSet().getAllTxns()) {
+				++numTxns;
+				txnSum += txn.getDateInt() * 1_000_003L + txn.getValue() * 31
+					+ txn.getAccount().getUUID().hashCode();
+			}
+			int numSnapshots = 0;
+			long snapshotSum = 0;
+
+			for (CurrencyType currency : book.getCurrencies().getAllCurrencies()) {
+				for (CurrencySnapshot snapshot : currency.getSnapshots()) {
+					++numSnapshots;
+					snapshotSum += snapshot.getDateInt() * 1_000_003L
+						+ Double.doubleToLongBits(snapshot.getRate()) * 31
+						+ currency.getUUID().hashCode();
+				}
+			} // end for
+
+			return new BookStamp(numAccounts, accountSum, numTxns, txnSum, numSnapshots,
+				snapshotSum);
+		} // end of(AccountBook)
+
+	} // end record BookStamp
+
+	/**
+	 * One series, held in memory and written through to its column file.
+	 * Header: magic, version, record count. Each record: date int, scale int,
+	 * unscaled value long.
+	 */
+	private static final class Column {
+		private final FileChannel channel;
+		private final ByteBuffer writeBuf = ByteBuffer.allocate(RECORD_SIZE);
+		private int[] dates;
+		private int[] scales;
+		private long[] values;
+		private int count;
+
+		/**
+		 * @param file The column file to open or create
+		 */
+		private Column(Path file) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(Files.exists(file) ? Files.readAllBytes(file) : new byte[0]);
+			this.channel = FileChannel.open(file, READ, WRITE, CREATE);
+
+			if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+				allocate(INITIAL_CAPACITY);
+				setCount(0);
+			} else {
+				int numRecords = Math.min(buf.getInt(8), (buf.limit() - HEADER_SIZE) / RECORD_SIZE);
+				allocate(Math.max(INITIAL_CAPACITY, numRecords));
+
+				for (int i = 0; i < numRecords; ++i) {
+					int offset = HEADER_SIZE + i * RECORD_SIZE;
+					this.dates[i] = buf.getInt(offset);
+					this.scales[i] = buf.getInt(offset + 4);
+					this.values[i] = buf.getLong(offset + 8);
+				}
+				this.count = numRecords;
+			}
+
+		} // end constructor
+
+		/**
+		 * @param capacity Number of records to hold in memory
+		 */
+		private void allocate(int capacity) {
+			this.dates = this.dates == null ? new int[capacity] : Arrays.copyOf(this.dates, capacity);
+			this.scales = this.scales == null ? new int[capacity] : Arrays.copyOf(this.scales, capacity);
+			this.values = this.values == null ? new long[capacity] : Arrays.copyOf(this.values, capacity);
+
+		} // end allocate(int)
+
+		/**
+		 * @param count Number of valid records
+		 */
+		private void setCount(int count) throws IOException {
+			this.count = count;
+			this.writeBuf.clear().putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).flip();
+			this.channel.write(this.writeBuf, 0);
+
+		} // end setCount(int)
+
+		/**
+		 * @param index Record index
+		 * @return Date of the record at index
+		 */
+		private int dateAt(int index) {
+
+			return this.dates[index];
+		} // end dateAt(int)
+
+		/**
+		 * @param date The date to find
+		 * @return Index of the record for date, or -1 when there is none
+		 */
+		private int find(int date) {
+			int low = 0;
+			int high = this.count - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midDate = dateAt(mid);
+
+				if (midDate < date) {
+					low = mid + 1;
+				} else if (midDate > date) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			} // end while
+
+			return -1;
+		} // end find(int)
+
+		/**
+		 * @param date  The date of the value, after any existing record
+		 * @param scale Number of digits to the right of the decimal point
+		 * @param value Unscaled value
+		 */
+		private void append(int date, int scale, long value) throws IOException {
+			if (this.count == this.dates.length) {
+				allocate(this.count * 2);
+			}
+			this.dates[this.count] = date;
+			this.scales[this.count] = scale;
+			this.values[this.count] = value;
+			this.writeBuf.clear().putInt(date).putInt(scale).putLong(value).flip();
+			this.channel.write(this.writeBuf, HEADER_SIZE + (long) this.count * RECORD_SIZE);
+			setCount(this.count + 1);
+
+		} // end append(int, int, long)
+
+	} // end class Column
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param book Moneydance account book whose history we store
+	 */
+	private HistoryStore(AccountBook book) {
+		this.book = book;
+		this.storeDir = book.getRootFolder().toPath().resolve("nw-sync").resolve("history");
+
+	} // end constructor
+
+	/**
+	 * @param book Moneydance account book whose history we store
+	 * @return A new store, listening for Moneydance changes
+	 */
+	public static HistoryStore create(AccountBook book) {
+		HistoryStore historyStore = new HistoryStore(book);
+
+		synchronized (historyStore) {
+			for (Account account : getAllAccounts(book)) {
+				historyStore.accountShapes.put(account, AccountShape.of(account));
+			}
+		}
+		book.getTransactionSet().addTransactionListener(historyStore);
+		book.getCurrencies().addCurrencyListener(historyStore);
+		book.addAccountListener(historyStore);
+
+		return historyStore;
+	} // end create(AccountBook)
+
+	/**
+	 * @return The account book whose history we store
+	 */
+	public AccountBook getBook() {
+
+		return this.book;
+	} // end getBook()
+
+	/**
+	 * @param account Moneydance account
+	 * @return Series key for account balances
+	 */
+	public static String accountKey(Account account) {
+
+		return "a-" + account.getUUID();
+	} // end accountKey(Account)
+
+	/**
+	 * @param securityAccount Moneydance security account
+	 * @return Series key for the market values of the holding in securityAccount
+	 */
+	public static String holdingKey(Account securityAccount) {
+
+		return "h-" + securityAccount.getUUID();
+	} // end holdingKey(Account)
+
+	/**
+	 * @param security Moneydance security
+	 * @return Series key for security prices
+	 */
+	public static String securityKey(CurrencyType security) {
+
+		return "s-" + security.getUUID();
+	} // end securityKey(CurrencyType)
+
+	/**
+	 * Read stored values of a verified series without allocating.
+	 *
+	 * @param seriesKey The series to read
+	 * @param dates     The dates to read values for
+	 * @param values    Receives the value for each date
+	 * @return True when the series is verified and has a value for every date
+	 */
+	public synchronized boolean readInto(String seriesKey, int[] dates, ScaledValues values) {
+		if (!this.verified.contains(seriesKey) && getTrusted().remove(seriesKey)) {
+			try {
+				getColumn(seriesKey);
+				this.verified.add(seriesKey);
+			} catch (Exception e) {
+				MdLog.all("Problem opening history store series %s".formatted(seriesKey), e);
+			}
+		}
+		Column column = this.verified.contains(seriesKey) ? this.columns.get(seriesKey) : null;
+
+		if (column == null)
+			return false;
+
+		for (int i = 0; i < dates.length; ++i) {
+			int index = column.find(dates[i]);
+
+			if (index < 0)
+				return false;
+
+			values.set(i, column.values[index], column.scales[index]);
+		} // end for
+
+		return true;
+	} // end readInto(String, int[], ScaledValues)
+
+	/**
+	 * @return The current generation, to pass to update for values computed from now on
+	 */
+	public synchronized long getGeneration() {
+
+		return this.generation;
+	} // end getGeneration()
+
+	/**
+	 * Record values just computed from Moneydance. Stored records that
+	 * disagree are discarded from the first disagreement on. The series is
+	 * then verified for the rest of this session. Values computed before any
+	 * Moneydance change since are not recorded, since they may be stale.
+	 *
+	 * @param seriesKey  The series to update
+	 * @param dates      Ascending dates of the values
+	 * @param values     The value for each date
+	 * @param generation The generation when the values were captured from Moneydance
+	 */
+	public synchronized void update(String seriesKey, int[] dates, ScaledValues values,
+			long generation) {
+		if (generation != this.generation)
+			return; // Moneydance changed after these values were captured
+
+		for (int i = 0; i < dates.length; ++i) {
+			if (values.isOversized(i) || values.isMissing(i))
+				return; // can't store this series
+		}
+
+		try {
+			Column column = getColumn(seriesKey);
+
+			for (int i = 0; i < dates.length; ++i) {
+				int index = column.find(dates[i]);
+
+				if (index >= 0) {
+					if (column.values[index] == values.unscaledAt(i)
+							&& column.scales[index] == values.scaleAt(i))
+						continue;
+
+					column.setCount(index); // discard this and later records
+				} else if (column.count > 0 && column.dateAt(column.count - 1) > dates[i]) {
+					// keep appending in date order
+					column.setCount(firstIndexAfter(column, dates[i]));
+				}
+				column.append(dates[i], values.scaleAt(i), values.unscaledAt(i));
+			} // end for
+			this.verified.add(seriesKey);
+			getTrusted().remove(seriesKey);
+		} catch (Exception e) {
+			MdLog.all("Problem updating history store series %s".formatted(seriesKey), e);
+			this.verified.remove(seriesKey);
+		}
+
+	} // end update(String, int[], ScaledValues, long)
+
+	/**
+	 * Discard stored values of a series from a date on.
+	 *
+	 * @param seriesKey The series to invalidate
+	 * @param fromDate  The earliest date affected
+	 */
+	public synchronized void invalidate(String seriesKey, int fromDate) {
+		Column column = this.columns.get(seriesKey);
+		++this.generation;
+
+		if (column != null) {
+			try {
+				column.setCount(firstIndexAfter(column, fromDate - 1));
+			} catch (IOException e) {
+				MdLog.all("Problem invalidating history store series %s".formatted(seriesKey), e);
+				this.verified.remove(seriesKey);
+			}
+		}
+		if (this.trusted != null) {
+			// verify it again before serving it
+			this.trusted.remove(seriesKey);
+		}
+
+	} // end invalidate(String, int)
+
+	/**
+	 * @param column The column to search
+	 * @param date   The date of interest
+	 * @return Index of the first record after date
+	 */
+	private static int firstIndexAfter(Column column, int date) {
+		int index = column.count;
+
+		while (index > 0 && column.dateAt(index - 1) > date) {
+			--index;
+		}
+
+		return index;
+	} // end firstIndexAfter(Column, int)
+
+	/**
+	 * @param seriesKey The series to open
+	 * @return The column for seriesKey
+	 */
+	private Column getColumn(String seriesKey) throws IOException {
+		Column column = this.columns.get(seriesKey);
+
+		if (column == null) {
+			Files.createDirectories(this.storeDir);
+			column = new Column(this.storeDir.resolve(seriesKey + ".col"));
+			this.columns.put(seriesKey, column);
+		}
+
+		return column;
+	} // end getColumn(String)
+
+	/**
+	 * @param book Moneydance account book
+	 * @return Every account below the root account, at any depth
+	 */
+	private static Set<Account> getAllAccounts(AccountBook book) {
+		Set<Account> accounts = new LinkedHashSet<>();
+		addSubAccounts(book.getRootAccount(), accounts);
+
+		return accounts;
+	} // end getAllAccounts(AccountBook)
+
+	/**
+	 * @param parent   Moneydance account
+	 * @param accounts Receives each subaccount of parent and of their subaccounts
+	 */
+	private static void addSubAccounts(Account parent, Set<Account> accounts) {
+		for (Account subAccount : parent.getSubAccounts()) {
+			if (accounts.add(subAccount)) {
+				addSubAccounts(subAccount, accounts);
+			}
+		}
+
+	} // end addSubAccounts(Account, Set<Account>)
+
+	/**
+	 * @param txn A transaction, or one of its splits
+	 * @return The accounts of the whole transaction and all of its splits
+	 */
+	public static Set<Account> getTxnAccounts(AbstractTxn txn) {
+		Set<Account> accounts = new LinkedHashSet<>();
+		accounts.add(txn.getAccount());
+		ParentTxn parent = txn instanceof SplitTxn split ? split.getParentTxn()
+			: txn instanceof ParentTxn parentTxn ? parentTxn : null;
+
+		if (parent != null) {
+			accounts.add(parent.getAccount());
+
+			for (int i = 0; i < parent.getSplitCount(); ++i) {
+				accounts.add(parent.getSplit(i).getAccount());
+			}
+		}
+		accounts.remove(null);
+
+		return accounts;
+	} // end getTxnAccounts(AbstractTxn)
+
+	/**
+	 * Invalidate the balances of each account a transaction touches and their
+	 * parents, and the market values of any holding in those accounts, such
+	 * as the security account of an investment transaction.
+	 *
+	 * @param txn      The transaction that changed
+	 * @param fromDate The earliest date affected
+	 */
+	private void invalidateAccount(AbstractTxn txn, int fromDate) {
+		for (Account txnAccount : getTxnAccounts(txn)) {
+			invalidateBalances(txnAccount, fromDate);
+		}
+
+	} // end invalidateAccount(AbstractTxn, int)
+
+	/**
+	 * Invalidate the balances of an account and its parents, and the market
+	 * values of any holding in the account.
+	 *
+	 * @param account  The account whose balance changed
+	 * @param fromDate The earliest date affected
+	 */
+	private void invalidateBalances(Account account, int fromDate) {
+		for (Account balanceAccount = account; balanceAccount != null;
+				balanceAccount = balanceAccount.getParentAccount()) {
+			invalidate(accountKey(balanceAccount), fromDate);
+		}
+		invalidate(holdingKey(account), fromDate);
+
+	} // end invalidateBalances(Account, int)
+
+	public void transactionAdded(AbstractTxn txn) {
+		invalidateAccount(txn, txn.getDateInt());
+
+	} // end transactionAdded(AbstractTxn)
+
+	public void transactionModified(AbstractTxn txn) {
+		// the prior date is unknown, so discard the whole series
+		invalidateAccount(txn, 0);
+
+	} // end transactionModified(AbstractTxn)
+
+	public void transactionRemoved(AbstractTxn txn) {
+		invalidateAccount(txn, txn.getDateInt());
+
+	} // end transactionRemoved(AbstractTxn)
+
+	public synchronized void accountAdded(Account parentAccount, Account newAccount) {
+		this.accountShapes.put(newAccount, AccountShape.of(newAccount));
+		invalidateBalances(newAccount, 0);
+
+	} // end accountAdded(Account, Account)
+
+	/**
+	 * A new start balance changes every balance of the account and its
+	 * parents; a new parent also changes those of its old parents.
+	 *
+	 * @param account The account that changed
+	 */
+	public synchronized void accountModified(Account account) {
+		AccountShape shape = AccountShape.of(account);
+		AccountShape oldShape = this.accountShapes.put(account, shape);
+
+		if (!shape.equals(oldShape)) {
+			invalidateBalances(account, 0);
+
+			if (oldShape != null && oldShape.parent() != null) {
+				invalidateBalances(oldShape.parent(), 0);
+			}
+		}
+
+	} // end accountModified(Account)
+
+	public synchronized void accountDeleted(Account parentAccount, Account deletedAccount) {
+		this.accountShapes.remove(deletedAccount);
+		invalidateBalances(deletedAccount, 0);
+
+		if (parentAccount != null) {
+			invalidateBalances(parentAccount, 0);
+		}
+
+	} // end accountDeleted(Account, Account)
+
+	public void accountBalanceChanged(Account account) {
+		// our transaction listener already invalidates the affected dates
+
+	} // end accountBalanceChanged(Account)
+
+	/**
+	 * Prices may have changed for any security, so verify them, and the
+	 * market values of holdings, all again.
+	 *
+	 * @param table The currency table that changed
+	 */
+	public synchronized void currencyTableModified(CurrencyTable table) {
+		unverify(HistoryStore::isPriceDependent);
+
+	} // end currencyTableModified(CurrencyTable)
+
+	/**
+	 * Verify the matching series again before serving them.
+	 *
+	 * @param matching Tells which series keys to verify again
+	 */
+	private void unverify(Predicate<String> matching) {
+		this.verified.removeIf(matching);
+		++this.generation;
+
+		if (this.trusted != null) {
+			this.trusted.removeIf(matching);
+		}
+
+	} // end unverify(Predicate<String>)
+
+	/**
+	 * @param seriesKey A series key
+	 * @return True when the series depends on security prices
+	 */
+	private static boolean isPriceDependent(String seriesKey) {
+
+		return seriesKey.startsWith("s-") || seriesKey.startsWith("h-");
+	} // end isPriceDependent(String)
+
+	/**
+	 * Load the series a prior session verified, keeping those the account
+	 * book's stamp shows are still valid. Account balances need matching
+	 * accounts and transactions; prices and holding values also need
+	 * matching snapshots.
+	 * The stamp file is consumed, so a session that ends without closing the
+	 * store trusts nothing next time.
+	 *
+	 * @return Series trusted without verifying
+	 */
+	private Set<String> getTrusted() {
+		if (this.trusted == null) {
+			this.trusted = new HashSet<>();
+			Path stampFile = this.storeDir.resolve(STAMP_FILE);
+
+			if (Files.isReadable(stampFile)) {
+				try (DataInputStream in = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(stampFile)))) {
+					if (in.readInt() == STAMP_MAGIC && in.readInt() == STAMP_VERSION) {
+						BookStamp stored = new BookStamp(in.readInt(), in.readLong(), in.readInt(),
+							in.readLong(), in.readInt(), in.readLong());
+						BookStamp current = BookStamp.of(this.book);
+						boolean balancesMatch = stored.numAccounts() == current.numAccounts()
+							&& stored.accountSum() == current.accountSum()
+							&& stored.numTxns() == current.numTxns()
+							&& stored.txnSum() == current.txnSum();
+						boolean pricesMatch = stored.numSnapshots() == current.numSnapshots()
+							&& stored.snapshotSum() == current.snapshotSum();
+
+						for (int i = in.readInt(); i > 0; --i) {
+							String seriesKey = in.readUTF();
+
+							if (isPriceDependent(seriesKey) ? balancesMatch && pricesMatch : balancesMatch) {
+								this.trusted.add(seriesKey);
+							}
+						} // end for
+						MdLog.debug("Trusting %d stored history series".formatted(this.trusted.size()));
+					}
+				} catch (Exception e) {
+					MdLog.all("Problem reading history store stamp %s".formatted(stampFile), e);
+					this.trusted.clear();
+				}
+				deleteStamp(stampFile);
+			}
+		}
+
+		return this.trusted;
+	} // end getTrusted()
+
+	/**
+	 * Record the account book's stamp and the series now valid, for the next
+	 * session to trust.
+	 */
+	private void writeStamp() {
+		if (this.trusted == null)
+			return; // never used, so any prior stamp stands
+
+		Set<String> valid = new HashSet<>(this.verified);
+		valid.addAll(this.trusted);
+		Path stampFile = this.storeDir.resolve(STAMP_FILE);
+
+		try {
+			Files.createDirectories(this.storeDir);
+			BookStamp stamp = BookStamp.of(this.book);
+
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(stampFile)))) {
+				out.writeInt(STAMP_MAGIC);
+				out.writeInt(STAMP_VERSION);
+				out.writeInt(stamp.numAccounts());
+				out.writeLong(stamp.accountSum());
+				out.writeInt(stamp.numTxns());
+				out.writeLong(stamp.txnSum());
+				out.writeInt(stamp.numSnapshots());
+				out.writeLong(stamp.snapshotSum());
+				out.writeInt(valid.size());
+
+				for (String seriesKey : valid) {
+					out.writeUTF(seriesKey);
+				}
+			} // end try-with-resources
+		} catch (Exception e) {
+			MdLog.all("Problem writing history store stamp %s".formatted(stampFile), e);
+		}
+
+	} // end writeStamp()
+
+	/**
+	 * @param stampFile The stamp file just read
+	 */
+	private static void deleteStamp(Path stampFile) {
+		try {
+			Files.delete(stampFile);
+		} catch (IOException e) {
+			MdLog.all("Problem deleting history store stamp %s".formatted(stampFile), e);
+		}
+
+	} // end deleteStamp(Path)
+
+	/**
+	 * Run a batch of price updates without reacting to each one, then verify
+	 * security prices again once.
+	 *
+	 * @param update The price updates to run
+	 */
+	public void updatePrices(Runnable update) {
+		CurrencyTable currencies = this.book.getCurrencies();
+		currencies.removeCurrencyListener(this);
+		try {
+			update.run();
+		} finally {
+			currencies.addCurrencyListener(this);
+			currencyTableModified(currencies);
+		}
+
+	} // end updatePrices(Runnable)
+
+	/**
+	 * Stop listening for Moneydance changes, record which series the next
+	 * session can trust and close our column files.
+	 */
+	public synchronized void close() {
+		this.book.getTransactionSet().removeTransactionListener(this);
+		this.book.getCurrencies().removeCurrencyListener(this);
+		this.book.removeAccountListener(this);
+		writeStamp();
+
+		for (Column column : this.columns.values()) {
+			try {
+				column.channel.close();
+			} catch (IOException e) {
+				MdLog.all("Problem closing history store column", e);
+			}
+		}
+		this.columns.clear();
+		this.verified.clear();
+		this.trusted = null;
+		this.accountShapes.clear();
+
+	} // end close()
+
+} // end class HistoryStore
@@ -0,0 +1,109 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Properties;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MdUtil;
+
+/**
+ * Which earlier date columns a sync verifies. Verification can be limited to
+ * the latest columns or those since a date, while every column is still
+ * verified once the configured number of days has passed since the last sync
+ * that verified them all.
+ */
+public class HistoryWindow {
+	private final int numColumns;
+	private final LocalDate sinceDate;
+	private final int fullIntervalDays;
+	private final Path stampFile;
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param numColumns       Number of latest earlier columns to verify, 0 for all
+	 * @param sinceDate        First date to verify, null for no limit
+	 * @param fullIntervalDays Days between syncs verifying every column, 0 for never
+	 * @param stampFile        File recording the date of the last sync verifying every column
+	 */
+	public HistoryWindow(int numColumns, LocalDate sinceDate, int fullIntervalDays, Path stampFile) {
+		this.numColumns = numColumns;
+		this.sinceDate = sinceDate;
+		this.fullIntervalDays = fullIntervalDays;
+		this.stampFile = stampFile;
+
+	} // end constructor
+
+	/**
+	 * @param props   Our properties
+	 * @param dataDir Our folder in the Moneydance data folder
+	 * @return New instance configured by props
+	 */
+	public static HistoryWindow fromProperties(Properties props, Path dataDir) {
+		String since = props.getProperty("verify.window.since", "").trim();
+
+		return new HistoryWindow(
+			Integer.parseInt(props.getProperty("verify.window.columns", "0").trim()),
+			since.isEmpty() ? null : LocalDate.parse(since),
+			Integer.parseInt(props.getProperty("verify.full.interval.days", "0").trim()),
+			dataDir.resolve("last-full-verify"));
+	} // end fromProperties(Properties, Path)
+
+	/**
+	 * @param earlierDates Each earlier date in the date row, in decimal form YYYYMMDD
+	 * @return Index in earlierDates of the first date to verify
+	 */
+	public int getFirstIndex(int[] earlierDates) {
+		if (isFullDue())
+			return 0;
+
+		int first = this.numColumns > 0 ? Math.max(0, earlierDates.length - this.numColumns) : 0;
+
+		if (this.sinceDate != null) {
+			int since = MdUtil.convLocalToDateInt(this.sinceDate);
+
+			while (first < earlierDates.length && earlierDates[first] < since) {
+				++first;
+			}
+		}
+
+		return first;
+	} // end getFirstIndex(int[])
+
+	/**
+	 * @return True when this window limits nothing, or a sync verifying every column is due
+	 */
+	private boolean isFullDue() {
+		if (this.numColumns <= 0 && this.sinceDate == null)
+			return true;
+
+		if (this.fullIntervalDays <= 0)
+			return false;
+
+		try {
+			LocalDate lastFull = LocalDate.parse(Files.readString(this.stampFile).trim());
+
+			return !LocalDate.now().isBefore(lastFull.plusDays(this.fullIntervalDays));
+		} catch (Exception e) {
+			// never recorded, or unreadable
+			return true;
+		}
+	} // end isFullDue()
+
+	/**
+	 * Record that a sync verified every earlier column today.
+	 */
+	public void recordFullVerify() {
+		try {
+			Files.createDirectories(this.stampFile.getParent());
+			Files.writeString(this.stampFile, LocalDate.now().toString());
+		} catch (IOException e) {
+			MdLog.all("Problem recording full verification in %s".formatted(this.stampFile), e);
+		}
+
+	} // end recordFullVerify()
+
+} // end class HistoryWindow
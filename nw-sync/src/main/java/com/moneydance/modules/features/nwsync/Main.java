@@ -3,16 +3,42 @@
  */
 package com.moneydance.modules.features.nwsync;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+import com.infinitekind.moneydance.model.AccountBook;
 import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MdUtil;
+import com.leastlogic.moneydance.util.MduException;
 import com.moneydance.apps.md.controller.FeatureModule;
 
 /**
  * Module used to synchronize John's NW spreadsheet document with Moneydance.
+ * <p>
+ * Other extensions, loaded by their own class loaders, can query our cached
+ * balances and prices using only JDK types. Find this module among
+ * Moneydance's loaded extensions by its ID, cast it to
+ * {@code Function<String, Optional<List<BigDecimal>>>} and apply it to a
+ * request such as {@code balances?account=Assets%3AChecking&dates=20240131,20240229}
+ * or {@code prices?ticker=VTI&dates=20240131}. See {@link NwQueryService#answer(String)}.
  */
 @SuppressWarnings("unused")
-public class Main extends FeatureModule implements AutoCloseable {
+public class Main extends FeatureModule
+		implements Function<String, Optional<List<BigDecimal>>>, AutoCloseable {
 	private NwSyncConsole syncConsole = null;
 	private NwSyncWorker syncWorker = null;
+	private HistoryStore historyStore = null;
+	private SyncExecutor syncExecutor = null;
+	private NwQueryService queryService = null;
+	/** Completed once every worker we started before the current one has released its resources */
+	private CompletableFuture<Void> priorWorkersClosed = CompletableFuture.completedFuture(null);
+	private final List<Flow.Subscriber<? super SyncEvent>> eventSubscribers =
+		new CopyOnWriteArrayList<>();
 
 	/**
 	 * Register this module to be invoked via the Extensions menu.
@@ -34,15 +60,22 @@ public class Main extends FeatureModule implements AutoCloseable {
 		MdLog.all("%s invoked with uri [%s]".formatted(getName(), uri));
 
 		try {
-			if (this.syncWorker != null) {
-				this.syncWorker.stopExecute();
-			}
+			CompletableFuture<Void> priorClosed = this.syncWorker == null
+				? this.priorWorkersClosed
+				: CompletableFuture.allOf(this.priorWorkersClosed, this.syncWorker.stopExecute());
+			this.priorWorkersClosed = priorClosed;
 			showConsole();
 			this.syncConsole.clearText();
 
 			// SwingWorker instances are not reusable, so make a new one
-			this.syncWorker = new NwSyncWorker(this.syncConsole, getName(), getContext());
-			this.syncWorker.execute();
+			SyncExecutor executor = getSyncExecutor();
+			NwSyncWorker worker = new NwSyncWorker(this.syncConsole, getName(),
+				getHistoryStore(priorClosed), executor);
+			this.eventSubscribers.forEach(worker::subscribe);
+			this.syncWorker = worker;
+
+			// start once any prior worker has let go of the office connection
+			priorClosed.thenRun(() -> executor.execute(worker));
 		} catch (Throwable e) {
 			handleException(e);
 		}
@@ -63,11 +96,140 @@ public class Main extends FeatureModule implements AutoCloseable {
 		if (this.syncConsole != null)
 			this.syncConsole = this.syncConsole.goAway();
 
-		if (this.syncWorker != null)
-			this.syncWorker = this.syncWorker.stopExecute();
+		CompletableFuture<Void> workerClosed = CompletableFuture.completedFuture(null);
+
+		if (this.syncWorker != null) {
+			workerClosed = this.syncWorker.stopExecute();
+			this.syncWorker = null;
+		}
+		workerClosed = CompletableFuture.allOf(this.priorWorkersClosed, workerClosed);
+		this.priorWorkersClosed = CompletableFuture.completedFuture(null);
+
+		CompletableFuture<Boolean> threadsStopped = workerClosed.thenApply(closed -> true);
+
+		if (this.syncExecutor != null) {
+			SyncExecutor executor = this.syncExecutor;
+			threadsStopped = workerClosed.thenCompose(closed -> executor.shutdown());
+			this.syncExecutor = null;
+		}
+
+		if (this.historyStore != null) {
+			HistoryStore store = this.historyStore;
+			// close the store only once none of our threads can be using it
+			threadsStopped.thenAccept(stopped -> {
+				if (stopped) {
+					store.close();
+				} else {
+					MdLog.all("Leaving history store open since sync threads are still running");
+				}
+			});
+			this.historyStore = null;
+		}
+
+		if (this.queryService != null) {
+			this.queryService.close();
+			this.queryService = null;
+		}
 
 	} // end cleanup()
 
+	/**
+	 * @param priorClosed Future completed once earlier workers no longer use a prior store
+	 * @return Stored history of the current account book
+	 */
+	private synchronized HistoryStore getHistoryStore(CompletableFuture<Void> priorClosed) {
+		AccountBook book = getContext().getCurrentAccountBook();
+
+		if (this.historyStore != null && this.historyStore.getBook() != book) {
+			// a different account book is open now; close its store once no worker uses it
+			priorClosed.thenRun(this.historyStore::close);
+			this.historyStore = null;
+		}
+		if (this.historyStore == null) {
+			this.historyStore = HistoryStore.create(book);
+		}
+
+		return this.historyStore;
+	} // end getHistoryStore(CompletableFuture<Void>)
+
+	/**
+	 * Answer a balance or price query from another extension about the
+	 * current account book, so it need not walk transactions itself.
+	 *
+	 * @param request The query, as described by {@link NwQueryService#answer(String)}
+	 * @return The balances or prices as of the end of each date, when the account or security exists
+	 * @throws IllegalArgumentException when the request is malformed
+	 * @throws IllegalStateException    when our query service is unavailable
+	 */
+	public Optional<List<BigDecimal>> apply(String request) {
+		try {
+
+			return getQueryService().answer(request);
+		} catch (MduException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	} // end apply(String)
+
+	/**
+	 * @return Our balance and price query service for the current account book
+	 */
+	private synchronized NwQueryService getQueryService() throws MduException {
+		AccountBook book = getContext().getCurrentAccountBook();
+
+		if (this.queryService != null && this.queryService.getBook() != book) {
+			// a different account book is open now
+			this.queryService.close();
+			this.queryService = null;
+		}
+		if (this.queryService == null) {
+			String cacheSize = MdUtil.loadProps(OdsAccessor.propertiesFileName, getClass())
+				.getProperty("query.cache.size", "256").trim();
+
+			try {
+				this.queryService = NwQueryService.create(book, Integer.parseInt(cacheSize));
+			} catch (NumberFormatException e) {
+				throw new MduException(e, "Invalid query.cache.size %s", cacheSize);
+			}
+		}
+
+		return this.queryService;
+	} // end getQueryService()
+
+	/**
+	 * Subscribe to the events of each sync started after this call. The
+	 * subscriber is subscribed anew to each sync, receiving onComplete at the
+	 * end of each one. Events are dropped for a subscriber that falls behind,
+	 * which is then sent a {@link SyncEvent.EventsLost} event with the count.
+	 *
+	 * @param subscriber The subscriber to add
+	 */
+	public void addEventSubscriber(Flow.Subscriber<? super SyncEvent> subscriber) {
+		this.eventSubscribers.add(subscriber);
+
+	} // end addEventSubscriber(Flow.Subscriber<? super SyncEvent>)
+
+	/**
+	 * Stop subscribing to the events of syncs started after this call.
+	 *
+	 * @param subscriber The subscriber to remove
+	 */
+	public void removeEventSubscriber(Flow.Subscriber<? super SyncEvent> subscriber) {
+		this.eventSubscribers.remove(subscriber);
+
+	} // end removeEventSubscriber(Flow.Subscriber<? super SyncEvent>)
+
+	/**
+	 * @return This extension's threads
+	 */
+	private synchronized SyncExecutor getSyncExecutor() throws MduException {
+		if (this.syncExecutor == null) {
+			this.syncExecutor = SyncExecutor.fromProperties(
+				MdUtil.loadProps(OdsAccessor.propertiesFileName, getClass()));
+		}
+
+		return this.syncExecutor;
+	} // end getSyncExecutor()
+
 	public String getName() {
 
 		return "NW Sync";
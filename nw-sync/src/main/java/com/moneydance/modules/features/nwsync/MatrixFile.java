@@ -0,0 +1,183 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.leastlogic.moneydance.util.MduException;
+import com.moneydance.modules.features.nwsync.SyncEvent.ValueKind;
+
+/**
+ * Streams the net worth matrix a sync computes to a compact columnar binary
+ * file for analysis elsewhere. Rows are spreadsheet keys and columns are the
+ * sheet's dates. Rows are written in batches, and each batch is stored a
+ * column at a time, so readers can load whole date columns as primitive
+ * arrays and a writer holds at most one batch of row references.
+ *
+ * <p>Layout, big-endian:
+ * <pre>
+ * int magic "NWMX", int version, int dateCount, int[dateCount] dates (YYYYMMDD)
+ * batches, each:
+ *   int rowCount (greater than zero)
+ *   rowCount times: modified UTF-8 key, byte kind (0 price, 1 balance, 2 holding)
+ *   for each date: byte[rowCount] scales, then long[rowCount] unscaled values;
+ *     a scale of -128 marks a missing value
+ * int 0
+ * </pre>
+ */
+public class MatrixFile implements AutoCloseable {
+	private final Path path;
+	private final int numDates;
+	private final DataOutputStream out;
+	private final List<String> keys = new ArrayList<>();
+	private final List<ValueKind> kinds = new ArrayList<>();
+	private final List<ScaledValues> earlierValues = new ArrayList<>();
+	private final List<ScaledValues> latestValues = new ArrayList<>();
+	private int numRows = 0;
+
+	private static final int MAGIC = 0x4E574D58; // "NWMX"
+	private static final int VERSION = 1;
+	private static final int BATCH_ROWS = 1024;
+	private static final byte MISSING_SCALE = Byte.MIN_VALUE;
+
+	/**
+	 * Sole constructor. Creates the file and writes its header.
+	 *
+	 * @param path         Location of the file
+	 * @param earlierDates Each earlier date in the date row, in decimal form YYYYMMDD
+	 * @param latestDate   The rightmost date in the date row, in decimal form YYYYMMDD
+	 */
+	public MatrixFile(Path path, int[] earlierDates, int latestDate) throws MduException {
+		this.path = path;
+		this.numDates = earlierDates.length + 1;
+
+		try {
+			Files.createDirectories(path.toAbsolutePath().getParent());
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(VERSION);
+			this.out.writeInt(this.numDates);
+
+			for (int date : earlierDates) {
+				this.out.writeInt(date);
+			}
+			this.out.writeInt(latestDate);
+		} catch (IOException e) {
+			throw new MduException(e, "Exception creating %s", path);
+		}
+
+	} // end constructor
+
+	/**
+	 * Add one row, writing a batch once enough rows are held.
+	 *
+	 * @param key    The spreadsheet name of the row
+	 * @param kind   Price, balance or holding
+	 * @param values Value as of each earlier date
+	 * @param latest Value as of the latest date, in its first position
+	 */
+	public void addRow(String key, ValueKind kind, ScaledValues values, ScaledValues latest)
+			throws MduException {
+		this.keys.add(key);
+		this.kinds.add(kind);
+		this.earlierValues.add(values);
+		this.latestValues.add(latest);
+
+		if (this.keys.size() == BATCH_ROWS) {
+			writeBatch();
+		}
+
+	} // end addRow(String, ValueKind, ScaledValues, ScaledValues)
+
+	/**
+	 * @return Number of rows added
+	 */
+	public int getNumRows() {
+
+		return this.numRows + this.keys.size();
+	} // end getNumRows()
+
+	/**
+	 * Write the rows held as one batch, a column at a time.
+	 */
+	private void writeBatch() throws MduException {
+		int rowCount = this.keys.size();
+
+		try {
+			this.out.writeInt(rowCount);
+
+			for (int r = 0; r < rowCount; ++r) {
+				this.out.writeUTF(this.keys.get(r));
+				this.out.writeByte(switch (this.kinds.get(r)) {
+					case PRICE -> 0;
+					case BALANCE -> 1;
+					case HOLDING -> 2;
+					case DATE -> throw new IllegalArgumentException("Dates are not matrix rows");
+				});
+			}
+
+			for (int c = 0; c < this.numDates; ++c) {
+				boolean isLatest = c == this.numDates - 1;
+
+				for (int r = 0; r < rowCount; ++r) {
+					ScaledValues values = isLatest ? this.latestValues.get(r) : this.earlierValues.get(r);
+					int index = isLatest ? 0 : c;
+					this.out.writeByte(isWritable(values, index) ? values.scaleAt(index) : MISSING_SCALE);
+				}
+
+				for (int r = 0; r < rowCount; ++r) {
+					ScaledValues values = isLatest ? this.latestValues.get(r) : this.earlierValues.get(r);
+					int index = isLatest ? 0 : c;
+					this.out.writeLong(isWritable(values, index) ? values.unscaledAt(index) : 0);
+				}
+			} // end for
+		} catch (IOException e) {
+			throw new MduException(e, "Exception writing %s", this.path);
+		}
+		this.numRows += rowCount;
+		this.keys.clear();
+		this.kinds.clear();
+		this.earlierValues.clear();
+		this.latestValues.clear();
+
+	} // end writeBatch()
+
+	/**
+	 * @param values The values of a row
+	 * @param index  Index of the value to check
+	 * @return True when the value fits our layout
+	 */
+	private static boolean isWritable(ScaledValues values, int index) {
+
+		return index < values.length() && !values.isOversized(index) && !values.isMissing(index)
+			&& values.scaleAt(index) > MISSING_SCALE && values.scaleAt(index) <= Byte.MAX_VALUE;
+	} // end isWritable(ScaledValues, int)
+
+	/**
+	 * Write any rows still held and the end marker, then close the file.
+	 */
+	public void close() throws MduException {
+		try (DataOutputStream stream = this.out) {
+			if (!this.keys.isEmpty()) {
+				writeBatch();
+			}
+			stream.writeInt(0);
+		} catch (IOException e) {
+			throw new MduException(e, "Exception closing %s", this.path);
+		}
+
+	} // end close()
+
+	/**
+	 * @return A string representation of this MatrixFile
+	 */
+	public String toString() {
+
+		return this.path.toString();
+	} // end toString()
+
+} // end class MatrixFile
@@ -0,0 +1,418 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.Account;
+import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.moneydance.model.CurrencySnapshot;
+import com.leastlogic.moneydance.util.MdUtil;
+import com.leastlogic.moneydance.util.SnapshotList;
+
+/**
+ * Immutable copies of the Moneydance data a spreadsheet sync needs. The
+ * capture methods run on the sync worker thread and are the only ones that
+ * touch Moneydance model objects. The resulting series hold only primitive
+ * arrays and immutable values, so they can be evaluated on any thread.
+ */
+public final class MdDataSnapshot {
+
+	/**
+	 * Values of one spreadsheet row as of a number of dates.
+	 */
+	public sealed interface ValueSeries permits PriceSeries, BalanceSeries, HoldingSeries,
+			FixedSeries {
+
+		/**
+		 * @param asOfDates The dates to obtain values for, in decimal form YYYYMMDD
+		 * @return The value as of the end of each date in asOfDates
+		 */
+		ScaledValues valuesAsOf(int[] asOfDates);
+
+		/**
+		 * @param asOfDates The dates of interest, in decimal form YYYYMMDD
+		 * @return True when this series can supply values for asOfDates
+		 */
+		default boolean answers(int[] asOfDates) {
+
+			return true;
+		} // end answers(int[])
+
+	} // end interface ValueSeries
+
+	/**
+	 * Price history of one security.
+	 */
+	public static final class PriceSeries implements ValueSeries {
+		private final int[] dates;
+		private final ScaledValues prices;
+
+		/**
+		 * @param dates  Ascending snapshot dates
+		 * @param prices Price on each corresponding date
+		 */
+		private PriceSeries(int[] dates, ScaledValues prices) {
+			this.dates = dates;
+			this.prices = prices;
+
+		} // end constructor
+
+		/**
+		 * @param asOfDate The date to obtain the price for
+		 * @return The price as of the end of asOfDate, or 1 when there is no earlier price
+		 */
+		public BigDecimal priceAsOf(int asOfDate) {
+			int index = lastIndexOnOrBefore(this.dates, asOfDate);
+
+			return index < 0 ? BigDecimal.ONE : this.prices.get(index);
+		} // end priceAsOf(int)
+
+		public ScaledValues valuesAsOf(int[] asOfDates) {
+			ScaledValues values = new ScaledValues(asOfDates.length);
+
+			for (int i = 0; i < asOfDates.length; ++i) {
+				int index = lastIndexOnOrBefore(this.dates, asOfDates[i]);
+
+				if (index < 0) {
+					values.set(i, 1, 0);
+				} else {
+					values.set(i, this.prices, index);
+				}
+			} // end for
+
+			return values;
+		} // end valuesAsOf(int[])
+
+	} // end class PriceSeries
+
+	/**
+	 * Balance history of one account without subaccounts.
+	 */
+	public static final class BalanceSeries implements ValueSeries {
+		private final int[] dates;
+		private final long[] balances;
+		private final long startBalance;
+		private final int decimalPlaces;
+
+		/**
+		 * @param dates         Ascending transaction dates
+		 * @param balances      Running balance after each corresponding date's transactions
+		 * @param startBalance  Balance before any transactions
+		 * @param decimalPlaces Number of decimal places in the account's currency
+		 */
+		private BalanceSeries(int[] dates, long[] balances, long startBalance, int decimalPlaces) {
+			this.dates = dates;
+			this.balances = balances;
+			this.startBalance = startBalance;
+			this.decimalPlaces = decimalPlaces;
+
+		} // end constructor
+
+		/**
+		 * @param asOfDate The date to obtain the balance for
+		 * @return The balance as of the end of asOfDate
+		 */
+		public BigDecimal balanceAsOf(int asOfDate) {
+			int index = lastIndexOnOrBefore(this.dates, asOfDate);
+
+			return BigDecimal.valueOf(index < 0 ? this.startBalance : this.balances[index],
+				this.decimalPlaces);
+		} // end balanceAsOf(int)
+
+		public ScaledValues valuesAsOf(int[] asOfDates) {
+			ScaledValues values = new ScaledValues(asOfDates.length);
+
+			for (int i = 0; i < asOfDates.length; ++i) {
+				int index = lastIndexOnOrBefore(this.dates, asOfDates[i]);
+				values.set(i, index < 0 ? this.startBalance : this.balances[index],
+					this.decimalPlaces);
+			}
+
+			return values;
+		} // end valuesAsOf(int[])
+
+	} // end class BalanceSeries
+
+	/**
+	 * Market value history of one security holding: shares times price. The
+	 * value is missing on dates before the security's first price.
+	 */
+	public static final class HoldingSeries implements ValueSeries {
+		private final ValueSeries shares;
+		private final ValueSeries prices;
+		private final int firstPriceDate;
+		private final int decimalPlaces;
+
+		/**
+		 * @param shares         Share balance history of the holding
+		 * @param prices         Price history of the security held
+		 * @param firstPriceDate Date of the security's first price, Integer.MAX_VALUE when none
+		 * @param decimalPlaces  Number of decimal places in the holding account's currency
+		 */
+		private HoldingSeries(ValueSeries shares, ValueSeries prices, int firstPriceDate,
+				int decimalPlaces) {
+			this.shares = shares;
+			this.prices = prices;
+			this.firstPriceDate = firstPriceDate;
+			this.decimalPlaces = decimalPlaces;
+
+		} // end constructor
+
+		public boolean answers(int[] asOfDates) {
+
+			return this.shares.answers(asOfDates) && this.prices.answers(asOfDates);
+		} // end answers(int[])
+
+		public ScaledValues valuesAsOf(int[] asOfDates) {
+			ScaledValues shareValues = this.shares.valuesAsOf(asOfDates);
+			ScaledValues priceValues = this.prices.valuesAsOf(asOfDates);
+			ScaledValues values = new ScaledValues(asOfDates.length);
+
+			for (int i = 0; i < asOfDates.length; ++i) {
+				if (asOfDates[i] < this.firstPriceDate) {
+					// a placeholder price would value shares as currency
+					values.setMissing(i);
+				} else {
+					values.set(i, marketValue(shareValues.get(i), priceValues.get(i),
+						this.decimalPlaces));
+				}
+			} // end for
+
+			return values;
+		} // end valuesAsOf(int[])
+
+	} // end class HoldingSeries
+
+	/**
+	 * Values already obtained from Moneydance for a fixed set of dates.
+	 */
+	public static final class FixedSeries implements ValueSeries {
+		private final int[] dates;
+		private final ScaledValues values;
+
+		/**
+		 * @param dates  The dates the values were obtained for
+		 * @param values The value as of each corresponding date
+		 */
+		private FixedSeries(int[] dates, ScaledValues values) {
+			this.dates = dates.clone();
+			this.values = values;
+
+		} // end constructor
+
+		public boolean answers(int[] asOfDates) {
+
+			return Arrays.equals(this.dates, asOfDates);
+		} // end answers(int[])
+
+		public ScaledValues valuesAsOf(int[] asOfDates) {
+			if (!answers(asOfDates))
+				throw new IllegalArgumentException("Values were captured for different dates");
+			ScaledValues copy = new ScaledValues(this.values.length());
+
+			for (int i = 0; i < copy.length(); ++i) {
+				copy.set(i, this.values, i);
+			}
+
+			return copy;
+		} // end valuesAsOf(int[])
+
+	} // end class FixedSeries
+
+	/**
+	 * Static methods only.
+	 */
+	private MdDataSnapshot() {
+	}
+
+	/**
+	 * Capture the price history of a security. Runs on the sync worker thread.
+	 *
+	 * @param snapshotList The list of snapshots to use
+	 * @param asOfDates    The dates the captured series will be asked about
+	 * @return Immutable price history
+	 */
+	public static ValueSeries capturePrices(SnapshotList snapshotList, int[] asOfDates) {
+		List<CurrencySnapshot> snapshots = snapshotList.getSecurity().getSnapshots();
+		int[] dates = new int[snapshots.size()];
+		int[] order = new int[dates.length];
+
+		for (int i = 0; i < dates.length; ++i) {
+			dates[i] = snapshots.get(i).getDateInt();
+		}
+		sortByDate(dates, order);
+		ScaledValues prices = new ScaledValues(dates.length);
+
+		for (int i = 0; i < dates.length; ++i) {
+			prices.set(i, SnapshotList.getPrice(snapshots.get(order[i])));
+		}
+		PriceSeries series = new PriceSeries(dates, prices);
+
+		if (asOfDates.length > 0) {
+			// make sure we agree with the snapshot list on the most recent date
+			int lastDate = asOfDates[asOfDates.length - 1];
+			BigDecimal expected = snapshotList.getSnapshotForDate(lastDate)
+				.map(SnapshotList::getPrice).orElse(BigDecimal.ONE);
+
+			if (expected.compareTo(series.priceAsOf(lastDate)) != 0) {
+				BigDecimal[] values = new BigDecimal[asOfDates.length];
+
+				for (int i = 0; i < values.length; ++i) {
+					values[i] = snapshotList.getSnapshotForDate(asOfDates[i])
+						.map(SnapshotList::getPrice).orElse(BigDecimal.ONE);
+				}
+
+				return new FixedSeries(asOfDates, ScaledValues.of(values));
+			}
+		}
+
+		return series;
+	} // end capturePrices(SnapshotList, int[])
+
+	/**
+	 * Capture the balance history of an account. Runs on the sync worker thread.
+	 * Accounts with subaccounts, or whose transactions don't reproduce the
+	 * current balance Moneydance reports, are captured by asking Moneydance for
+	 * the balances directly.
+	 *
+	 * @param book           Moneydance account book
+	 * @param account        The account to capture
+	 * @param currentBalance The account's current balance according to Moneydance
+	 * @param asOfDates      The dates the captured series will be asked about
+	 * @return Immutable balance history
+	 */
+	public static ValueSeries captureBalances(AccountBook book, Account account,
+			BigDecimal currentBalance, int[] asOfDates) {
+		if (account.getSubAccounts().isEmpty()) {
+			int[] dates = new int[16];
+			long[] values = new long[dates.length];
+			int count = 0;
+
+			for (AbstractTxn txn : book.getTransactionSet().getTransactionsForAccount(account)) {
+				if (count == dates.length) {
+					dates = Arrays.copyOf(dates, count * 2);
+					values = Arrays.copyOf(values, count * 2);
+				}
+				dates[count] = txn.getDateInt();
+				values[count++] = txn.getValue();
+			} // end for
+			dates = Arrays.copyOf(dates, count);
+			int[] order = new int[count];
+			sortByDate(dates, order);
+			long startBalance = account.getStartBalance();
+			long[] balances = new long[count];
+			long running = startBalance;
+
+			for (int i = 0; i < count; ++i) {
+				running += values[order[i]];
+				balances[i] = running;
+			}
+			BalanceSeries series = new BalanceSeries(dates, balances, startBalance,
+				account.getCurrencyType().getDecimalPlaces());
+			int today = MdUtil.convLocalToDateInt(LocalDate.now());
+
+			if (currentBalance.compareTo(series.balanceAsOf(today)) == 0)
+				return series;
+		}
+
+		return new FixedSeries(asOfDates,
+			ScaledValues.of(MdUtil.getBalancesAsOfDates(book, account, asOfDates)));
+	} // end captureBalances(AccountBook, Account, BigDecimal, int[])
+
+	/**
+	 * Capture the market value history of a security holding, from the share
+	 * balances of its security account and the price history of the security,
+	 * so every date is valued in one pass without spreadsheet formulas. Runs
+	 * on the sync worker thread. Values on dates before the security's first
+	 * price are missing.
+	 *
+	 * @param book            Moneydance account book
+	 * @param securityAccount The security account holding the shares
+	 * @param currentShares   The account's current share balance according to Moneydance
+	 * @param snapshotList    The list of snapshots of the security held
+	 * @param decimalPlaces   Number of decimal places in the holding account's currency
+	 * @param asOfDates       The dates the captured series will be asked about
+	 * @return Immutable market value history
+	 */
+	public static ValueSeries captureHoldings(AccountBook book, Account securityAccount,
+			BigDecimal currentShares, SnapshotList snapshotList, int decimalPlaces, int[] asOfDates) {
+
+		int firstPriceDate = Integer.MAX_VALUE;
+
+		for (CurrencySnapshot snapshot : snapshotList.getSecurity().getSnapshots()) {
+			firstPriceDate = Math.min(firstPriceDate, snapshot.getDateInt());
+		}
+
+		return new HoldingSeries(captureBalances(book, securityAccount, currentShares, asOfDates),
+			capturePrices(snapshotList, asOfDates), firstPriceDate, decimalPlaces);
+	} // end captureHoldings(AccountBook, Account, BigDecimal, SnapshotList, int, int[])
+
+	/**
+	 * @param shares        Number of shares held
+	 * @param price         Price of each share
+	 * @param decimalPlaces Number of decimal places in the holding account's currency
+	 * @return Market value of the shares, rounded to the holding account's currency
+	 */
+	public static BigDecimal marketValue(BigDecimal shares, BigDecimal price, int decimalPlaces) {
+
+		return shares.multiply(price).setScale(decimalPlaces, RoundingMode.HALF_EVEN);
+	} // end marketValue(BigDecimal, BigDecimal, int)
+
+	/**
+	 * @param dates  The dates the values were obtained for
+	 * @param values The value as of each corresponding date
+	 * @return Series answering only for dates
+	 */
+	public static ValueSeries fixed(int[] dates, ScaledValues values) {
+
+		return new FixedSeries(dates, values);
+	} // end fixed(int[], ScaledValues)
+
+	/**
+	 * Sort dates in place, recording the original index of each sorted date.
+	 *
+	 * @param dates Dates in decimal form YYYYMMDD
+	 * @param order Receives the original index of each sorted date
+	 */
+	private static void sortByDate(int[] dates, int[] order) {
+		long[] keys = new long[dates.length];
+
+		for (int i = 0; i < keys.length; ++i) {
+			keys[i] = ((long) dates[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		for (int i = 0; i < keys.length; ++i) {
+			dates[i] = (int) (keys[i] >>> 32);
+			order[i] = (int) keys[i];
+		}
+
+	} // end sortByDate(int[], int[])
+
+	/**
+	 * @param dates Ascending dates
+	 * @param date  The date of interest
+	 * @return Index of the last entry on or before date, or -1 when none
+	 */
+	private static int lastIndexOnOrBefore(int[] dates, int date) {
+		int low = 0;
+		int high = dates.length;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (dates[mid] <= date) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		} // end while
+
+		return low - 1;
+	} // end lastIndexOnOrBefore(int[], int)
+
+} // end class MdDataSnapshot
@@ -0,0 +1,307 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.Account;
+import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.moneydance.model.AccountListener;
+import com.infinitekind.moneydance.model.CurrencyListener;
+import com.infinitekind.moneydance.model.CurrencyTable;
+import com.infinitekind.moneydance.model.CurrencyType;
+import com.infinitekind.moneydance.model.TransactionListener;
+import com.leastlogic.moneydance.util.MdUtil;
+import com.leastlogic.moneydance.util.SnapshotList;
+import com.moneydance.modules.features.nwsync.MdDataSnapshot.ValueSeries;
+
+/**
+ * Answers balance and price questions about one account book using the same
+ * series the sync builds, so other extensions and reports need not walk
+ * transactions themselves. Captured series are kept in a least recently used
+ * cache, and Moneydance change listeners discard any a transaction, account
+ * or price change affects. Other extensions reach it through our module's
+ * answer method, which takes and returns only JDK types.
+ */
+public class NwQueryService
+		implements TransactionListener, CurrencyListener, AccountListener, AutoCloseable {
+	private final AccountBook book;
+	private final Map<String, ValueSeries> cache;
+	/** Counts invalidations, so a series captured before one is not cached */
+	private long generation = 0;
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param book      Moneydance account book to answer questions about
+	 * @param cacheSize Maximum number of series to keep
+	 */
+	private NwQueryService(AccountBook book, int cacheSize) {
+		this.book = book;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, ValueSeries> eldest) {
+
+				return size() > cacheSize;
+			}
+		};
+
+	} // end constructor
+
+	/**
+	 * @param book      Moneydance account book to answer questions about
+	 * @param cacheSize Maximum number of series to keep
+	 * @return A new service, listening for Moneydance changes
+	 */
+	public static NwQueryService create(AccountBook book, int cacheSize) {
+		NwQueryService queryService = new NwQueryService(book, cacheSize);
+		book.getTransactionSet().addTransactionListener(queryService);
+		book.getCurrencies().addCurrencyListener(queryService);
+		book.addAccountListener(queryService);
+
+		return queryService;
+	} // end create(AccountBook, int)
+
+	/**
+	 * @return The account book we answer questions about
+	 */
+	public AccountBook getBook() {
+
+		return this.book;
+	} // end getBook()
+
+	/**
+	 * Answer a query written as a URI style request, either
+	 * {@code balances?account=<accountPath>&dates=<date>,<date>...} or
+	 * {@code prices?ticker=<ticker>&dates=<date>,<date>...}, with parameter
+	 * values URL encoded and dates in decimal form YYYYMMDD.
+	 *
+	 * @param request The query
+	 * @return The balances or prices as of the end of each date, when the account or security exists
+	 * @throws IllegalArgumentException when the request is malformed
+	 */
+	public Optional<List<BigDecimal>> answer(String request) {
+		int queryStart = request.indexOf('?');
+
+		if (queryStart < 0)
+			throw new IllegalArgumentException("Missing parameters in query " + request);
+
+		Map<String, String> params = new HashMap<>();
+
+		for (String param : request.substring(queryStart + 1).split("&")) {
+			int eq = param.indexOf('=');
+
+			if (eq > 0) {
+				params.put(param.substring(0, eq),
+					URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+			}
+		} // end for
+		int[] dates;
+
+		try {
+			dates = Arrays.stream(params.getOrDefault("dates", "").split(","))
+				.map(String::trim).filter(date -> !date.isEmpty()).mapToInt(Integer::parseInt).toArray();
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid dates in query " + request, e);
+		}
+
+		return switch (request.substring(0, queryStart)) {
+			case "balances" -> getBalances(requireParam(params, "account", request), dates);
+			case "prices" -> getPrices(requireParam(params, "ticker", request), dates);
+			default -> throw new IllegalArgumentException("Unknown query " + request);
+		};
+	} // end answer(String)
+
+	/**
+	 * @param params  The request's parameters
+	 * @param name    Name of the parameter required
+	 * @param request The whole request
+	 * @return The parameter's value
+	 * @throws IllegalArgumentException when the parameter is missing
+	 */
+	private static String requireParam(Map<String, String> params, String name, String request) {
+		String value = params.get(name);
+
+		if (value == null || value.isEmpty())
+			throw new IllegalArgumentException("Missing %s in query %s".formatted(name, request));
+
+		return value;
+	} // end requireParam(Map<String, String>, String, String)
+
+	/**
+	 * @param accountPath Account name, or parent and subaccount names separated by a colon
+	 * @param dates       The dates of interest, in decimal form YYYYMMDD
+	 * @return The account's balance as of the end of each date, when the account exists
+	 */
+	public Optional<List<BigDecimal>> getBalances(String accountPath, int... dates) {
+
+		return findAccount(this.book.getRootAccount(), accountPath).map(account ->
+			query(HistoryStore.accountKey(account), dates, () -> MdDataSnapshot.captureBalances(
+				this.book, account, MdUtil.getCurrentBalance(account), dates)));
+	} // end getBalances(String, int...)
+
+	/**
+	 * @param ticker Ticker symbol of a security
+	 * @param dates  The dates of interest, in decimal form YYYYMMDD
+	 * @return The security's price as of the end of each date, when the security exists
+	 */
+	public Optional<List<BigDecimal>> getPrices(String ticker, int... dates) {
+		CurrencyType security = this.book.getCurrencies().getCurrencyByTickerSymbol(ticker);
+
+		return Optional.ofNullable(security).map(sec -> query(HistoryStore.securityKey(sec), dates,
+			() -> MdDataSnapshot.capturePrices(new SnapshotList(sec), dates)));
+	} // end getPrices(String, int...)
+
+	/**
+	 * @param seriesKey The series to query
+	 * @param dates     The dates of interest
+	 * @param capture   Captures the series when it isn't cached for these dates
+	 * @return The series value as of the end of each date
+	 */
+	private List<BigDecimal> query(String seriesKey, int[] dates, Supplier<ValueSeries> capture) {
+		ValueSeries series;
+		long capturedGeneration;
+
+		synchronized (this) {
+			series = this.cache.get(seriesKey);
+			capturedGeneration = this.generation;
+		}
+		if (series == null || !series.answers(dates)) {
+			series = capture.get();
+
+			synchronized (this) {
+				if (capturedGeneration == this.generation) {
+					this.cache.put(seriesKey, series);
+				} // else Moneydance changed during the capture, so it may be stale
+			}
+		}
+		ScaledValues values = series.valuesAsOf(dates);
+		BigDecimal[] result = new BigDecimal[values.length()];
+
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = values.get(i);
+		}
+
+		return List.of(result);
+	} // end query(String, int[], Supplier<ValueSeries>)
+
+	/**
+	 * @param root        Root account of an account book
+	 * @param accountPath Account name, or parent and subaccount names separated by a colon
+	 * @return The named account, when found
+	 */
+	public static Optional<Account> findAccount(Account root, String accountPath) {
+		final String[] actNames = accountPath.split(":");
+		Optional<Account> account = Optional.ofNullable(root.getAccountByName(actNames[0]));
+
+		if (account.isPresent() && actNames.length > 1) {
+			account = MdUtil.getSubAccountByName(account.get(), actNames[1]);
+		}
+
+		return account;
+	} // end findAccount(Account, String)
+
+	/**
+	 * Discard the balances of each account a transaction touches, through its
+	 * parent transaction and every split, and of their parents.
+	 *
+	 * @param txn The transaction that changed
+	 */
+	private synchronized void invalidateAccount(AbstractTxn txn) {
+		for (Account txnAccount : HistoryStore.getTxnAccounts(txn)) {
+			invalidateBalances(txnAccount);
+		}
+
+	} // end invalidateAccount(AbstractTxn)
+
+	/**
+	 * Discard the balances of an account and its parents.
+	 *
+	 * @param account The account whose balance changed
+	 */
+	private synchronized void invalidateBalances(Account account) {
+		for (Account balanceAccount = account; balanceAccount != null;
+				balanceAccount = balanceAccount.getParentAccount()) {
+			this.cache.remove(HistoryStore.accountKey(balanceAccount));
+		}
+		++this.generation;
+
+	} // end invalidateBalances(Account)
+
+	public void transactionAdded(AbstractTxn txn) {
+		invalidateAccount(txn);
+
+	} // end transactionAdded(AbstractTxn)
+
+	public void transactionModified(AbstractTxn txn) {
+		invalidateAccount(txn);
+
+	} // end transactionModified(AbstractTxn)
+
+	public void transactionRemoved(AbstractTxn txn) {
+		invalidateAccount(txn);
+
+	} // end transactionRemoved(AbstractTxn)
+
+	public void accountAdded(Account parentAccount, Account newAccount) {
+		invalidateBalances(newAccount);
+
+	} // end accountAdded(Account, Account)
+
+	/**
+	 * A new start balance or parent changes the balances of the account, its
+	 * parents and any former parents, which we no longer know, so discard
+	 * all balances.
+	 *
+	 * @param account The account that changed
+	 */
+	public synchronized void accountModified(Account account) {
+		this.cache.keySet().removeIf(seriesKey -> seriesKey.startsWith("a-"));
+		++this.generation;
+
+	} // end accountModified(Account)
+
+	public void accountDeleted(Account parentAccount, Account deletedAccount) {
+		invalidateBalances(deletedAccount);
+
+		if (parentAccount != null) {
+			invalidateBalances(parentAccount);
+		}
+
+	} // end accountDeleted(Account, Account)
+
+	public void accountBalanceChanged(Account account) {
+		// our transaction listener already discards the affected balances
+
+	} // end accountBalanceChanged(Account)
+
+	/**
+	 * Prices may have changed for any security, so discard them all.
+	 *
+	 * @param table The currency table that changed
+	 */
+	public synchronized void currencyTableModified(CurrencyTable table) {
+		this.cache.keySet().removeIf(seriesKey -> seriesKey.startsWith("s-"));
+		++this.generation;
+
+	} // end currencyTableModified(CurrencyTable)
+
+	/**
+	 * Stop listening for Moneydance changes and empty our cache.
+	 */
+	public synchronized void close() {
+		this.book.getTransactionSet().removeTransactionListener(this);
+		this.book.getCurrencies().removeCurrencyListener(this);
+		this.book.removeAccountListener(this);
+		this.cache.clear();
+
+	} // end close()
+
+} // end class NwQueryService
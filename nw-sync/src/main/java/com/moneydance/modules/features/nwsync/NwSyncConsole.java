@@ -5,7 +5,6 @@ package com.moneydance.modules.features.nwsync;
 
 import com.leastlogic.moneydance.util.MdLog;
 import com.leastlogic.moneydance.util.MdStorageUtil;
-import com.leastlogic.moneydance.util.StagedInterface;
 import com.leastlogic.swing.util.AwtScreenUtil;
 import com.leastlogic.swing.util.HTMLPane;
 
@@ -25,9 +24,10 @@ import static javax.swing.GroupLayout.DEFAULT_SIZE;
 public class NwSyncConsole extends JFrame {
 	private final MdStorageUtil mdStorage;
 	private JButton btnCommit;
+	private JProgressBar progressBar;
 	private HTMLPane pnOutputLog;
 	private final AwtScreenUtil screenUtil = new AwtScreenUtil(this);
-	private StagedInterface staged = null;
+	private Runnable commitAction = null;
 	private final ArrayDeque<AutoCloseable> closeableResources = new ArrayDeque<>();
 
 	static final String baseMessageBundleName = "com.moneydance.modules.features.nwsync.NwSyncMessages"; //$NON-NLS-1$
@@ -67,20 +67,26 @@ public class NwSyncConsole extends JFrame {
 		reducePreferredHeight(this.btnCommit);
 		this.btnCommit.setToolTipText(msgBundle.getString("NwSyncConsole.btnCommit.toolTipText")); //$NON-NLS-1$
 
+		this.progressBar = new JProgressBar(0, 100);
+		reducePreferredHeight(this.progressBar);
+
 		this.pnOutputLog = new HTMLPane();
 		JScrollPane scrollPane = new JScrollPane(this.pnOutputLog);
 		GroupLayout gl_contentPane = new GroupLayout(contentPane);
 		gl_contentPane.setHorizontalGroup(
 			gl_contentPane.createParallelGroup(Alignment.TRAILING)
 				.addGroup(gl_contentPane.createSequentialGroup()
-					.addContainerGap(403, Short.MAX_VALUE)
+					.addComponent(this.progressBar, DEFAULT_SIZE, 403, Short.MAX_VALUE)
+					.addPreferredGap(ComponentPlacement.UNRELATED)
 					.addComponent(this.btnCommit))
 				.addComponent(scrollPane, DEFAULT_SIZE, 532, Short.MAX_VALUE)
 		);
 		gl_contentPane.setVerticalGroup(
 			gl_contentPane.createParallelGroup(Alignment.LEADING)
 				.addGroup(gl_contentPane.createSequentialGroup()
-					.addComponent(this.btnCommit)
+					.addGroup(gl_contentPane.createParallelGroup(Alignment.CENTER)
+						.addComponent(this.progressBar)
+						.addComponent(this.btnCommit))
 					.addPreferredGap(ComponentPlacement.RELATED)
 					.addComponent(scrollPane, DEFAULT_SIZE, 271, Short.MAX_VALUE))
 		);
@@ -102,18 +108,11 @@ public class NwSyncConsole extends JFrame {
 	private void wireEvents() {
 		this.btnCommit.addActionListener(event -> {
 			// invoked when Commit is selected
-			if (this.staged != null) {
-				try {
-					this.staged.commitChanges().ifPresent(summary -> {
-						MdLog.all(summary);
-						this.pnOutputLog.addText(summary);
-					});
-					enableCommitButton(this.staged.isModified());
-				} catch (Exception e) {
-					MdLog.all("Problem committing changes", e);
-					addText(e.toString());
-					enableCommitButton(false);
-				}
+			if (this.commitAction != null) {
+				// the commit runs in the background and re-enables us when done
+				enableCommitButton(false);
+				setProgress(0);
+				this.commitAction.run();
 			}
 		}); // end btnCommit.addActionListener
 
@@ -154,14 +153,22 @@ public class NwSyncConsole extends JFrame {
 	} // end enableCommitButton(boolean)
 
 	/**
-	 * Store the object to manage staged changes.
+	 * @param percent Percentage of the current sync completed
+	 */
+	public void setProgress(int percent) {
+		this.progressBar.setValue(percent);
+
+	} // end setProgress(int)
+
+	/**
+	 * Store the action that commits staged changes without blocking.
 	 *
-	 * @param staged The object managing staged changes
+	 * @param commitAction The action to start a commit
 	 */
-	public void setStaged(StagedInterface staged) {
-		this.staged = staged;
+	public void setCommitAction(Runnable commitAction) {
+		this.commitAction = commitAction;
 
-	} // end setStaged(StagedInterface)
+	} // end setCommitAction(Runnable)
 
 	/**
 	 * Store an object with resources to close.
@@ -1,35 +1,119 @@
 package com.moneydance.modules.features.nwsync;
 
 import com.leastlogic.moneydance.util.MdLog;
-import com.moneydance.apps.md.controller.FeatureModuleContext;
 
 import javax.swing.SwingWorker;
 import java.util.List;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class NwSyncWorker extends SwingWorker<Boolean, String> implements AutoCloseable {
+public class NwSyncWorker extends SwingWorker<Boolean, String> implements WorkMonitor, AutoCloseable {
    private final NwSyncConsole syncConsole;
    private final String extensionName;
-   private final OdsAccessor odsAcc;
-   private final CountDownLatch finishedLatch = new CountDownLatch(1);
+   private final SyncExecutor syncExecutor;
+   private final HistoryStore historyStore;
+   private volatile SyncAccessor odsAcc = null;
+   private final AtomicBoolean started = new AtomicBoolean();
+   private final CompletableFuture<Void> finished = new CompletableFuture<>();
+   private CompletableFuture<Void> closed = null;
+   private CommitWorker commitWorker = null;
+   private final SubmissionPublisher<SyncEvent> events;
+   private final AtomicInteger numDropped = new AtomicInteger();
+   private volatile boolean stopped = false;
+
+   /** Events each external subscriber may have outstanding before new ones are dropped */
+   private static final int EVENT_BUFFER_SIZE = 1024;
+
+   /**
+    * Passes events on to an external subscriber, preceded by an EventsLost
+    * event whenever some were dropped since the prior one it received.
+    */
+   private static class GapReportingSubscriber implements Flow.Subscriber<SyncEvent> {
+      private final Flow.Subscriber<? super SyncEvent> subscriber;
+      private final AtomicInteger numLost = new AtomicInteger();
+
+      /**
+       * Sole constructor.
+       *
+       * @param subscriber The external subscriber
+       */
+      private GapReportingSubscriber(Flow.Subscriber<? super SyncEvent> subscriber) {
+         this.subscriber = subscriber;
+
+      } // end constructor
+
+      /**
+       * Record an event dropped for this subscriber. Runs on worker and compute threads.
+       */
+      private void eventDropped() {
+         this.numLost.incrementAndGet();
+
+      } // end eventDropped()
+
+      /**
+       * Tell our subscriber of any events dropped since its prior event.
+       */
+      private void reportLost() {
+         int lost = this.numLost.getAndSet(0);
+
+         if (lost > 0) {
+            this.subscriber.onNext(new SyncEvent.EventsLost(lost));
+         }
+
+      } // end reportLost()
+
+      public void onSubscribe(Flow.Subscription subscription) {
+         this.subscriber.onSubscribe(subscription);
+
+      } // end onSubscribe(Flow.Subscription)
+
+      public void onNext(SyncEvent event) {
+         reportLost();
+         this.subscriber.onNext(event);
+
+      } // end onNext(SyncEvent)
+
+      public void onError(Throwable throwable) {
+         reportLost();
+         this.subscriber.onError(throwable);
+
+      } // end onError(Throwable)
+
+      public void onComplete() {
+         reportLost();
+         this.subscriber.onComplete();
+
+      } // end onComplete()
+
+   } // end class GapReportingSubscriber
 
    /**
     * Sole constructor.
     *
     * @param syncConsole   Our NW sync console
     * @param extensionName This extension's name
-    * @param fmContext     Moneydance context
+    * @param historyStore  Stored history of the current Moneydance account book
+    * @param syncExecutor  This extension's threads
     */
    public NwSyncWorker(NwSyncConsole syncConsole, String extensionName,
-                       FeatureModuleContext fmContext) {
+                       HistoryStore historyStore, SyncExecutor syncExecutor) {
       super();
       this.syncConsole = syncConsole;
       this.extensionName = extensionName;
-      this.odsAcc = new OdsAccessor(this,
-         syncConsole.getLocale(), fmContext.getCurrentAccountBook());
-      syncConsole.setStaged(this.odsAcc);
+      this.syncExecutor = syncExecutor;
+      this.historyStore = historyStore;
+      this.events = new SubmissionPublisher<>(syncExecutor.getEventExecutor(), EVENT_BUFFER_SIZE);
+      addPropertyChangeListener(event -> {
+         if ("progress".equals(event.getPropertyName()) && !isCancelled()) {
+            syncConsole.setProgress((Integer) event.getNewValue());
+         }
+      });
+      syncConsole.setProgress(0);
+      syncConsole.setCommitAction(this::commitChanges);
       syncConsole.addCloseableResource(this);
 
    } // end constructor
@@ -41,17 +125,36 @@ public class NwSyncWorker extends SwingWorker<Boolean, String> implements AutoCl
     * @return true when changes have been detected
     */
    protected Boolean doInBackground() {
+      if (!this.started.compareAndSet(false, true))
+         return false; // closed before we started
+
+      boolean isModified = false;
       try {
+         // office classes are only loaded once a sync actually runs
+         this.odsAcc = SyncAccessor.load(this, this.syncConsole.getLocale(), this.historyStore,
+            this.syncExecutor.getComputePool());
          this.odsAcc.syncNwData();
+         isModified = this.odsAcc.isModified();
+
+         return isModified;
+      } catch (CancellationException e) {
+         MdLog.debug("Cancelled running %s invocation".formatted(this.extensionName));
 
-         return this.odsAcc.isModified();
+         return false;
       } catch (Throwable e) {
          MdLog.all("Problem running %s".formatted(this.extensionName), e);
          display(e.toString());
 
          return false;
       } finally {
-         this.finishedLatch.countDown();
+         publishEvent(new SyncEvent.Completed(isModified));
+         this.events.close();
+         int dropped = this.numDropped.get();
+
+         if (dropped > 0) {
+            MdLog.all("Dropped %d sync events for slow subscribers".formatted(dropped));
+         }
+         this.finished.complete(null);
       }
    } // end doInBackground()
 
@@ -60,6 +163,7 @@ public class NwSyncWorker extends SwingWorker<Boolean, String> implements AutoCl
     * Runs on event dispatch thread after the doInBackground method is finished.
     */
    protected void done() {
+      MdLog.debug("%s executor %s".formatted(this.extensionName, this.syncExecutor.getMetrics()));
       try {
          this.syncConsole.enableCommitButton(get());
       } catch (CancellationException e) {
@@ -77,17 +181,100 @@ public class NwSyncWorker extends SwingWorker<Boolean, String> implements AutoCl
     * @param msgs Messages to display
     */
    public void display(String... msgs) {
-      publish(msgs);
+      for (String msg: msgs) {
+         publishEvent(new SyncEvent.Message(msg));
+      }
 
    } // end display(String...)
 
+   /**
+    * Show any display text of an event in our console, then offer the event
+    * to each external subscriber without waiting. Console text is never
+    * dropped; events are dropped for any external subscriber whose buffer is
+    * full, so a slow subscriber never stalls the sync, and that subscriber is
+    * then sent an EventsLost event with the count. Nothing is published once
+    * this worker is stopped.
+    *
+    * @param event The event to publish
+    */
+   public void publishEvent(SyncEvent event) {
+      if (this.stopped)
+         return;
+
+      event.displayText().ifPresent(this::publish);
+
+      if (!this.events.isClosed() && this.events.hasSubscribers()) {
+         this.events.offer(event, (subscriber, dropped) -> {
+            this.numDropped.incrementAndGet();
+
+            if (subscriber instanceof GapReportingSubscriber gapReporter) {
+               gapReporter.eventDropped();
+            }
+
+            return false;
+         });
+      }
+
+   } // end publishEvent(SyncEvent)
+
+   /**
+    * Add a subscriber to the events of this sync. Subscribe before calling
+    * execute to receive every event. Subscribers are called on our event
+    * delivery threads, never on the worker or compute threads. Events
+    * dropped because the subscriber fell behind are reported to it in an
+    * EventsLost event.
+    *
+    * @param subscriber The subscriber to add
+    */
+   public void subscribe(Flow.Subscriber<? super SyncEvent> subscriber) {
+      this.events.subscribe(new GapReportingSubscriber(subscriber));
+
+   } // end subscribe(Flow.Subscriber<? super SyncEvent>)
+
+   /**
+    * Cooperative cancellation checkpoint. Runs on worker and compute threads.
+    *
+    * @throws CancellationException when this worker has been cancelled
+    */
+   public void checkCancelled() {
+      if (isCancelled())
+         throw new CancellationException("%s invocation cancelled".formatted(this.extensionName));
+
+   } // end checkCancelled()
+
+   /**
+    * Report progress as a percentage. Runs on worker and compute threads.
+    *
+    * @param done  Units of work done so far
+    * @param total Total units of work
+    */
+   public void reportProgress(int done, int total) {
+      if (total > 0) {
+         setProgress(Math.min(100, (int) (100L * done / total)));
+      }
+
+   } // end reportProgress(int, int)
+
+   /**
+    * Start committing our staged changes on our executor, after any earlier
+    * work there. Runs on event dispatch thread.
+    */
+   public synchronized void commitChanges() {
+      if (this.closed == null && this.odsAcc != null) {
+         this.commitWorker = CommitWorker.create(this.syncConsole, this.odsAcc);
+         this.syncExecutor.execute(this.commitWorker);
+      }
+
+   } // end commitChanges()
+
    /**
     * Runs on event dispatch thread.
     *
     * @param chunks Messages to process
     */
    protected void process(List<String> chunks) {
-      if (!isCancelled()) {
+      // drop text still queued when a newer sync took over the console
+      if (!isCancelled() && !this.stopped) {
          for (String msg: chunks) {
             this.syncConsole.addText(msg);
          }
@@ -96,44 +283,46 @@ public class NwSyncWorker extends SwingWorker<Boolean, String> implements AutoCl
    } // end process(List<String>)
 
    /**
-    * Stop a running execution.
+    * Stop a running execution without waiting for it.
     *
-    * @return null
+    * @return Future completed once this worker has finished and released its resources
     */
-   public NwSyncWorker stopExecute() {
+   public CompletableFuture<Void> stopExecute() {
+      this.stopped = true;
       close();
 
       // we no longer need closing
       this.syncConsole.removeCloseableResource(this);
 
-      return null;
+      return this.closed;
    } // end stopExecute()
 
    /**
     * Close this resource, relinquishing any underlying resources.
-    * Cancel this worker, wait for it to complete, discard its results and close odsAcc.
+    * Cancel this worker and any commit, and close odsAcc once they stop,
+    * without blocking the calling thread, which is usually the event
+    * dispatch thread.
     */
-   public void close() {
-      try (this.odsAcc) { // make sure we close odsAcc
+   public synchronized void close() {
+      if (this.closed == null) {
          if (getState() != StateValue.DONE) {
             MdLog.all("Cancelling running %s invocation".formatted(this.extensionName));
             cancel(false);
+         }
 
-            // wait for prior worker to complete
-            try {
-               this.finishedLatch.await();
-            } catch (InterruptedException e) {
-               // ignore
+         if (this.started.compareAndSet(false, true)) {
+            // never started, so nothing will complete finished
+            this.finished.complete(null);
+         }
+         CompletableFuture<Void> commitFinished = this.commitWorker == null
+            ? CompletableFuture.completedFuture(null) : this.commitWorker.cancelCommit();
+         this.closed = CompletableFuture.allOf(this.finished, commitFinished).thenRun(() -> {
+            if (this.odsAcc != null) {
+               this.odsAcc.close();
             }
+         });
+      }
 
-            // discard results and some exceptions
-            try {
-               get();
-            } catch (CancellationException | InterruptedException | ExecutionException e) {
-               // ignore
-            }
-         }
-      } // end try-with-resources
    } // end close()
 
 } // end class NwSyncWorker
@@ -3,16 +3,21 @@
  */
 package com.moneydance.modules.features.nwsync;
 
-import static com.sun.star.table.CellContentType.FORMULA;
-import static com.sun.star.table.CellContentType.TEXT;
 import static com.sun.star.uno.UnoRuntime.queryInterface;
 import static java.time.format.FormatStyle.MEDIUM;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.text.NumberFormat;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
@@ -21,7 +26,11 @@ import com.infinitekind.moneydance.model.CurrencyTable;
 import com.infinitekind.moneydance.model.CurrencyType;
 import com.leastlogic.moneydance.util.*;
 import com.leastlogic.swing.util.HTMLPane;
+import com.moneydance.modules.features.nwsync.CalcDoc.CellBlock;
 import com.moneydance.modules.features.nwsync.CellHandler.DateCellHandler;
+import com.moneydance.modules.features.nwsync.CellHandler.FloatCellHandler;
+import com.moneydance.modules.features.nwsync.DiffFile.DiffEntry;
+import com.moneydance.modules.features.nwsync.SheetGrid.GridRow;
 import com.sun.star.bridge.XBridge;
 import com.sun.star.bridge.XBridgeFactory;
 import com.sun.star.comp.helper.Bootstrap;
@@ -31,49 +40,136 @@ import com.sun.star.lang.XComponent;
 import com.sun.star.lang.XMultiComponentFactory;
 import com.sun.star.lang.XServiceInfo;
 import com.sun.star.sheet.XSpreadsheetDocument;
-import com.sun.star.table.XCell;
-import com.sun.star.table.XCellRange;
+import com.sun.star.table.CellRangeAddress;
 import com.sun.star.uno.XComponentContext;
 
-import ooo.connector.BootstrapSocketConnector;
-import ooo.connector.server.OOoServer;
-
 /**
  * Provides read/write access to an ods (OpenOffice/LibreOffice) spreadsheet
- * document.
+ * document, or to an xlsx workbook.
  */
-public class OdsAccessor implements StagedInterface, AutoCloseable {
+public class OdsAccessor implements SyncAccessor {
 	private final NwSyncWorker syncWorker;
 	private final Locale locale;
 	private final Account root;
 	private final CurrencyTable securities;
+	private final ValueFormats valueFormats;
+	private final Path dataDir;
+	private final GridCache gridCache;
+	private final HistoryStore historyStore;
 
+	private SheetDoc sheetDoc = null;
 	private CalcDoc calcDoc = null;
-	private XCellRange dateRow = null;
+	private String connectDescription = null;
+	private SheetGrid grid = null;
 	private int latestColumn = 0;
 	private DateCellHandler latestDateCell = null;
+	private LocalDate[] columnDates = null;
+	private Map<LocalDate, Integer> dateIndexes = null;
 	private int[] earlierDates = null;
+	private String[] earlierDayStrs = null;
+	private int firstVerifiedIndex = 0;
+	/** Index in earlierDates of the first date whose values we compute */
+	private int firstComputedIndex = 0;
+	/** The earlier dates from firstComputedIndex on */
+	private int[] computedDates = null;
+	private int[] displayDecimals = null;
+	private BigDecimal hiddenThreshold = BigDecimal.ZERO;
+	private int numHidden = 0;
 	private int numPricesSet = 0;
 	private int numBalancesSet = 0;
 	private int numDatesSet = 0;
 	private final TreeMap<LocalDate, List<String>> securitySnapshots = new TreeMap<>();
+	private final List<DiffEntry> diffEntries = new ArrayList<>();
+	private final SnapshotImport priceImports = new SnapshotImport();
 	private Properties nwSyncProps = null;
 
-	private static final String propertiesFileName = "nw-sync.properties";
+	private final ForkJoinPool computePool;
+
+	static final String propertiesFileName = "nw-sync.properties";
+	private static final int DIFF_BLOCK_ROWS = 64;
 	private static final DateTimeFormatter dateFmt = DateTimeFormatter.ofLocalizedDate(MEDIUM);
 
+	/**
+	 * A spreadsheet row matched to Moneydance, with its captured data.
+	 *
+	 * @param earlierCells The earlier date cells in this row, null where not numeric
+	 * @param val          The latest date cell in this row
+	 * @param keyVal       The spreadsheet name of this row
+	 * @param kind         Price, balance or holding
+	 * @param security     Names of the corresponding Moneydance security, or null for an account row
+	 * @param todaysValue  Today's price, balance or holding value
+	 * @param seriesKey    History store key of this row's series
+	 * @param series       Captured values for earlier dates
+	 * @param isStored     True when series was read from the history store
+	 */
+	private record MatchedRow(CellHandler[] earlierCells, CellHandler val, String keyVal,
+		SyncEvent.ValueKind kind, SecurityNames security, ScaledValues todaysValue, String seriesKey,
+		MdDataSnapshot.ValueSeries series, boolean isStored) {
+	} // end record MatchedRow
+
+	/**
+	 * Names of a Moneydance security, captured so the compare phase never
+	 * touches Moneydance model objects.
+	 *
+	 * @param name   The security's name
+	 * @param ticker The security's ticker symbol
+	 */
+	private record SecurityNames(String name, String ticker) {
+	} // end record SecurityNames
+
+	/**
+	 * Contiguous spreadsheet rows read in one block.
+	 *
+	 * @param firstRow Zero-based sheet row index of the first row
+	 * @param keys     The key of each row, in sheet order
+	 */
+	private record RowBand(int firstRow, List<String> keys) {
+	} // end record RowBand
+
+	/**
+	 * Changes found in one block of rows. Each block is filled by a single
+	 * thread and merged in row order afterwards.
+	 */
+	private static final class DiffBuffer {
+		private final List<SyncEvent.ValueChanged> events = new ArrayList<>();
+		private final List<CellHandler> changes = new ArrayList<>();
+		private int numPricesSet = 0;
+		private int numBalancesSet = 0;
+		private int numHidden = 0;
+
+		/**
+		 * @param event Event describing the change
+		 * @param val   The cell to change
+		 */
+		private void addChange(SyncEvent.ValueChanged event, CellHandler val) {
+			this.events.add(event);
+			val.holdNewValue(event.newValue());
+			this.changes.add(val);
+
+		} // end addChange(SyncEvent.ValueChanged, CellHandler)
+
+	} // end class DiffBuffer
+
 	/**
 	 * Sole constructor.
 	 *
-	 * @param syncWorker  The worker we can use to send messages to the event dispatch thread
-	 * @param locale      Our message window's Locale
-	 * @param accountBook Moneydance account book
+	 * @param syncWorker   The worker we can use to send messages to the event dispatch thread
+	 * @param locale       Our message window's Locale
+	 * @param historyStore Stored history of the Moneydance account book to use
+	 * @param computePool  Pool for the parallel stages of a sync
 	 */
-	public OdsAccessor(NwSyncWorker syncWorker, Locale locale, AccountBook accountBook) {
+	public OdsAccessor(NwSyncWorker syncWorker, Locale locale, HistoryStore historyStore,
+			ForkJoinPool computePool) {
+		AccountBook accountBook = historyStore.getBook();
 		this.syncWorker = syncWorker;
 		this.locale = locale;
 		this.root = accountBook.getRootAccount();
 		this.securities = accountBook.getCurrencies();
+		this.valueFormats = new ValueFormats(locale);
+		this.dataDir = accountBook.getRootFolder().toPath().resolve("nw-sync");
+		this.gridCache = new GridCache(this.dataDir);
+		this.historyStore = historyStore;
+		this.computePool = computePool;
 
 	} // end constructor
 
@@ -81,68 +177,599 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 	 * Synchronize data between a spreadsheet document and Moneydance.
 	 */
 	public void syncNwData() throws MduException {
-		loadCalcDoc();
+		long phaseStart = System.nanoTime();
+		String diffMode = getNwSyncProps().getProperty("diff.mode", "").trim();
+		loadSheetDoc();
 
-		if (this.calcDoc == null)
+		if (this.sheetDoc == null)
 			return; // nothing to synchronize
 
-		XEnumeration rowItr = this.calcDoc.getFirstSheetRowIterator();
+		phaseStart = endPhase("load document", phaseStart);
+		this.grid = loadSheetGrid();
 
-		if (!findDateRow(rowItr) || !findLatestDate())
+		if (this.grid == null || !findLatestDate())
 			return; // can't synchronize without a date row and latest date
+		phaseStart = endPhase("read grid", phaseStart);
+		loadDisplayDecimals();
 
-		while (rowItr.hasMoreElements()) {
-			XCellRange row = next(XCellRange.class, rowItr); // get next row
-			XCell key = this.calcDoc.getCellByIndex(row, 0); // get its first column
-
-			if (CalcDoc.isContentType(key, TEXT) || CalcDoc.isContentType(key, FORMULA)) {
-				String keyVal = CellHandler.asDisplayText(key);
-				CellHandler val = this.calcDoc.getCellHandlerByIndex(row, this.latestColumn);
-
-				if (val != null) {
-					CurrencyType security = this.securities.getCurrencyByTickerSymbol(keyVal);
-
-					if (security != null) {
-						// found this row's ticker symbol in Moneydance securities
-						SnapshotList ssList = new SnapshotList(security);
-						setTodaysPriceIfDiff(val, ssList);
-						setEarlierPricesIfDiff(row, ssList);
-					} else {
-						getAccount(keyVal).ifPresentOrElse(account -> {
-							// found this row's account in Moneydance
-							setTodaysBalIfDiff(val, account, keyVal);
-							setEarlierBalsIfDiff(row, account, keyVal);
-						}, () ->
-							MdLog.all("Ignoring row %s".formatted(keyVal)));
-					}
-				}
+		switch (diffMode) {
+			case "apply" -> {
+				applyDiffFile();
+
+				return;
 			}
+			case "import" -> {
+				stagePriceImports();
 
-			if (this.syncWorker.isCancelled())
 				return;
-		} // end while
+			}
+			case "export" ->
+				// the grid has all we need, so let the office process go
+				closeOfficeConnection();
+			default -> { }
+		}
+		HistoryWindow window = HistoryWindow.fromProperties(getNwSyncProps(), this.dataDir);
+		this.firstVerifiedIndex = window.getFirstIndex(this.earlierDates);
+		// a matrix file has values for every date, so only limit computing without one
+		this.firstComputedIndex = getMatrixFileName().isEmpty() ? this.firstVerifiedIndex : 0;
+		this.computedDates = Arrays.copyOfRange(this.earlierDates, this.firstComputedIndex,
+			this.earlierDates.length);
+
+		if (this.firstVerifiedIndex > 0) {
+			String firstDayStr = this.firstVerifiedIndex < this.earlierDayStrs.length
+				? this.earlierDayStrs[this.firstVerifiedIndex]
+				: this.latestDateCell.getDateValue().format(dateFmt);
+			this.syncWorker.display("Skipping %d earlier date%s before %s outside the verify window"
+				.formatted(this.firstVerifiedIndex, this.firstVerifiedIndex == 1 ? "" : "s", firstDayStr));
+		}
+		List<MatchedRow> matchedRows = new ArrayList<>();
+		List<GridRow> gridRows = this.grid.getRows();
+		long historyGeneration = this.historyStore.getGeneration();
+
+		for (int rowIndex = 0; rowIndex < gridRows.size(); ++rowIndex) {
+			GridRow gridRow = gridRows.get(rowIndex);
+			String keyVal = gridRow.key();
+			CellHandler val = this.sheetDoc.getCellHandler(this.grid, gridRow, this.latestColumn);
+
+			if (val != null) {
+				CurrencyType security = this.securities.getCurrencyByTickerSymbol(keyVal);
+
+				if (security != null) {
+					// found this row's ticker symbol in Moneydance securities
+					matchedRows.add(capturePriceRow(gridRow, val, keyVal, new SnapshotList(security)));
+					this.syncWorker.publishEvent(new SyncEvent.RowMatched(gridRow.sheetRow(), keyVal, true));
+				} else {
+					getAccount(keyVal).map(account ->
+						// found this row's account in Moneydance
+						captureBalanceRow(gridRow, val, keyVal, account)
+					).or(() -> getHoldingAccount(keyVal).map(securityAccount ->
+						// found this row's security holding in Moneydance
+						captureHoldingRow(gridRow, val, keyVal, securityAccount)
+					)).ifPresentOrElse(mRow -> {
+						matchedRows.add(mRow);
+						this.syncWorker.publishEvent(
+							new SyncEvent.RowMatched(gridRow.sheetRow(), keyVal, false));
+					}, () -> MdLog.all("Ignoring row %s".formatted(keyVal)));
+				}
+			}
+			this.syncWorker.checkCancelled();
+
+			// matching is the first half of our progress
+			this.syncWorker.reportProgress(rowIndex + 1, 2 * gridRows.size());
+		} // end for
+		phaseStart = endPhase("match rows", phaseStart);
+		List<ScaledValues> earlierValues = getEarlierValues(matchedRows);
+		storeHistory(matchedRows, earlierValues, historyGeneration);
+		exportMatrix(matchedRows, earlierValues);
+		phaseStart = endPhase("compute earlier values", phaseStart);
+		List<DiffBuffer> diffBlocks = diffRows(matchedRows, earlierValues);
+		this.syncWorker.checkCancelled();
+		diffBlocks.forEach(this::mergeDiffs);
 		analyzeSecurityDates();
+		endPhase("compare values", phaseStart);
+
+		if (this.numHidden > 0) {
+			this.syncWorker.display("Skipped %d change%s not visible at the displayed precision"
+				.formatted(this.numHidden, this.numHidden == 1 ? "" : "s"));
+		}
+
+		if (this.firstVerifiedIndex == 0 && this.earlierDates.length > 0) {
+			window.recordFullVerify();
+		}
 
-		if (!isModified()) {
+		if ("export".equals(diffMode)) {
+			exportDiffs();
+		} else if (!isModified()) {
 			this.syncWorker.display("No new price or balance data found");
 		}
 
 	} // end syncNwData()
 
+	/**
+	 * Write the changes found to our diff file for offline review, instead
+	 * of staging them.
+	 */
+	private void exportDiffs() throws MduException {
+		DiffFile diffFile = getDiffFile();
+		diffFile.write(this.diffEntries);
+		this.syncWorker.display("Wrote %d change%s to %s for review"
+			.formatted(this.diffEntries.size(), this.diffEntries.size() == 1 ? "" : "s", diffFile));
+		forgetChanges();
+
+	} // end exportDiffs()
+
+	/**
+	 * Stage the changes in our diff file, skipping any whose spreadsheet value
+	 * no longer matches the value exported. Committing then applies them all
+	 * in one batch.
+	 */
+	private void applyDiffFile() throws MduException {
+		DiffFile diffFile = getDiffFile();
+		List<DiffEntry> entries = diffFile.read();
+		Map<Integer, GridRow> gridRows = new HashMap<>();
+		gridRows.put(this.grid.getDateRow().sheetRow(), this.grid.getDateRow());
+		this.grid.getRows().forEach(gridRow -> gridRows.put(gridRow.sheetRow(), gridRow));
+		int numStaged = 0;
+
+		for (DiffEntry entry : entries) {
+			GridRow gridRow = gridRows.get(entry.row());
+			// find the column by date, in case columns were inserted after export
+			int index = getDateIndex(entry.date());
+			boolean hasColumn = gridRow != null && index > 0 && index < gridRow.kinds().length;
+			CellHandler val = hasColumn
+				? this.sheetDoc.getCellHandler(this.grid, gridRow, index) : null;
+			String dayStr = entry.date().format(dateFmt);
+
+			if (gridRow == null) {
+				this.syncWorker.display("Skipping change to %s for %s; row %d is no longer a synced row"
+					.formatted(entry.key(), dayStr, entry.row() + 1));
+			} else if (!entry.key().equalsIgnoreCase(gridRow.key())) {
+				// rows were inserted or removed after export
+				this.syncWorker.display("Skipping change to %s for %s; row %d now holds %s"
+					.formatted(entry.key(), dayStr, entry.row() + 1, gridRow.key()));
+			} else if (!hasColumn) {
+				this.syncWorker.display("Skipping change to %s; %s is no longer in the date row"
+					.formatted(entry.key(), dayStr));
+			} else if (val == null || !hasOldValue(val, entry)) {
+				this.syncWorker.display("Skipping change to %s for %s; the spreadsheet value changed after export"
+					.formatted(entry.key(), dayStr));
+			} else {
+				val.setNewValue(entry.kind() == SyncEvent.ValueKind.DATE
+					? entry.newValue().intValue() : entry.newValue());
+				this.diffEntries.add(entry);
+				++numStaged;
+
+				switch (entry.kind()) {
+					case PRICE -> ++this.numPricesSet;
+					case BALANCE, HOLDING -> ++this.numBalancesSet;
+					case DATE -> ++this.numDatesSet;
+				}
+			}
+			this.syncWorker.checkCancelled();
+		} // end for
+		this.syncWorker.display("Staged %d of %d changes from %s"
+			.formatted(numStaged, entries.size(), diffFile));
+
+	} // end applyDiffFile()
+
+	/**
+	 * @param val   The cell to check
+	 * @param entry The change exported for the cell
+	 * @return True when the cell still has the value the change was exported with
+	 */
+	private static boolean hasOldValue(CellHandler val, DiffEntry entry) {
+
+		return switch (val) {
+			case DateCellHandler dateVal -> dateVal.getValue() == entry.oldValue().intValue();
+			case FloatCellHandler floatVal ->
+				MdUtil.roundPrice(floatVal.getDoubleValue()).compareTo(entry.oldValue()) == 0;
+			default -> false;
+		};
+	} // end hasOldValue(CellHandler, DiffEntry)
+
+	/**
+	 * Write the matched rows' values for every date to our matrix file, when
+	 * one is configured.
+	 *
+	 * @param matchedRows   The rows that match Moneydance securities or accounts
+	 * @param earlierValues Each matched row's values as of our earlier dates
+	 */
+	private void exportMatrix(List<MatchedRow> matchedRows, List<ScaledValues> earlierValues)
+			throws MduException {
+		String fileName = getMatrixFileName();
+
+		if (!fileName.isEmpty()) {
+			Path matrixPath = Path.of(fileName);
+			MatrixFile matrixFile = new MatrixFile(
+				matrixPath.isAbsolute() ? matrixPath : this.dataDir.resolve(matrixPath),
+				this.earlierDates, this.latestDateCell.getValue());
+
+			try (matrixFile) {
+				for (int i = 0; i < matchedRows.size(); ++i) {
+					MatchedRow mRow = matchedRows.get(i);
+					matrixFile.addRow(mRow.keyVal(), mRow.kind(), earlierValues.get(i),
+						mRow.todaysValue());
+				}
+			}
+			this.syncWorker.display("Wrote %d rows for %d dates to %s".formatted(
+				matrixFile.getNumRows(), this.earlierDates.length + 1, matrixFile));
+		}
+
+	} // end exportMatrix(List<MatchedRow>, List<ScaledValues>)
+
+	/**
+	 * @return Name of our matrix file, or empty when none is configured
+	 */
+	private String getMatrixFileName() throws MduException {
+
+		return getNwSyncProps().getProperty("matrix.file", "").trim();
+	} // end getMatrixFileName()
+
+	/**
+	 * Stage the price in each security row, for each date in the date row,
+	 * that Moneydance lacks a snapshot dated that day for, or holds
+	 * differently in that day's snapshot. This covers prices that only the
+	 * spreadsheet tracks, such as private funds. Committing then imports them
+	 * all into Moneydance.
+	 */
+	private void stagePriceImports() {
+		int latestDate = this.latestDateCell.getValue();
+		int numMissing = 0;
+
+		for (GridRow gridRow : this.grid.getRows()) {
+			CurrencyType security = this.securities.getCurrencyByTickerSymbol(gridRow.key());
+
+			if (security != null) {
+				Map<Integer, CurrencySnapshot> snapshotsByDate = new HashMap<>();
+
+				for (CurrencySnapshot snapshot : security.getSnapshots()) {
+					snapshotsByDate.put(snapshot.getDateInt(), snapshot);
+				}
+
+				for (int index = 1; index <= this.latestColumn; ++index) {
+					if (this.sheetDoc.getCellHandler(this.grid, gridRow, index)
+							instanceof FloatCellHandler val) {
+						int date = index == this.latestColumn ? latestDate : this.earlierDates[index - 1];
+						BigDecimal price = MdUtil.roundPrice(val.getDoubleValue());
+						// only a snapshot dated this very day holds this day's price
+						BigDecimal oldPrice = Optional.ofNullable(snapshotsByDate.get(date))
+							.map(SnapshotList::getPrice).orElse(null);
+
+						if (price.signum() > 0 && (oldPrice == null || price.compareTo(oldPrice) != 0)) {
+							stagePriceImport(new SnapshotImport.PriceChange(security, date, oldPrice, price));
+
+							if (oldPrice == null) {
+								++numMissing;
+							}
+						}
+					}
+				} // end for
+			}
+			this.syncWorker.checkCancelled();
+		} // end for
+
+		if (this.priceImports.isEmpty()) {
+			this.syncWorker.display("No spreadsheet prices missing from or different in Moneydance found");
+		} else {
+			int numDifferent = this.priceImports.size() - numMissing;
+			this.syncWorker.display(("Staged %d security price%s to import into Moneydance:"
+				+ " %d missing from Moneydance, %d different").formatted(this.priceImports.size(),
+				this.priceImports.size() == 1 ? "" : "s", numMissing, numDifferent));
+		}
+
+	} // end stagePriceImports()
+
+	/**
+	 * @param change The price to stage for import
+	 */
+	private void stagePriceImport(SnapshotImport.PriceChange change) {
+		CurrencyType security = change.security();
+		String dayStr = MdUtil.convDateIntToLocal(change.date()).format(dateFmt);
+		BigDecimal oldPrice = change.oldPrice();
+		BigDecimal price = change.newPrice();
+		this.priceImports.add(change);
+
+		if (oldPrice == null) {
+			NumberFormat priceFmt = this.valueFormats.getCurrencyFormat(price, price);
+			this.syncWorker.display("Import missing %s (%s) price for %s of %s".formatted(
+				security.getName(), security.getTickerSymbol(), dayStr, priceFmt.format(price)));
+		} else {
+			NumberFormat priceFmt = this.valueFormats.getCurrencyFormat(oldPrice, price);
+			this.syncWorker.display("Import different %s (%s) price for %s, changing %s to %s"
+				.formatted(security.getName(), security.getTickerSymbol(), dayStr,
+				priceFmt.format(oldPrice), priceFmt.format(price)));
+		}
+
+	} // end stagePriceImport(SnapshotImport.PriceChange)
+
+	/**
+	 * @return Our diff file, relative to our data folder unless absolute
+	 */
+	private DiffFile getDiffFile() throws MduException {
+		Path diffPath = Path.of(getNwSyncProps().getProperty("diff.file", "nw-sync-diff.csv").trim());
+
+		return new DiffFile(diffPath.isAbsolute() ? diffPath : this.dataDir.resolve(diffPath));
+	} // end getDiffFile()
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @return The date in the date row for column
+	 */
+	private LocalDate getColumnDate(int column) {
+
+		return this.columnDates[column - this.grid.getKeyColumn()];
+	} // end getColumnDate(int)
+
+	/**
+	 * @param date The date of interest
+	 * @return Index relative to the key column of the column for date, or -1 when there is none
+	 */
+	private int getDateIndex(LocalDate date) {
+
+		return this.dateIndexes.getOrDefault(date, -1);
+	} // end getDateIndex(LocalDate)
+
+	/**
+	 * Publish how long a phase of this sync took.
+	 *
+	 * @param phase      Name of the phase
+	 * @param phaseStart System nanosecond time the phase started
+	 * @return System nanosecond time now, when the next phase starts
+	 */
+	private long endPhase(String phase, long phaseStart) {
+		long now = System.nanoTime();
+		this.syncWorker.publishEvent(new SyncEvent.PhaseTiming(phase, Duration.ofNanos(now - phaseStart)));
+
+		return now;
+	} // end endPhase(String, long)
+
 	/**
 	 * @param keyVal Account name:subaccount name
 	 * @return The Moneydance account corresponding to keyVal
 	 */
 	private Optional<Account> getAccount(String keyVal) {
-		final String[] actNames = keyVal.split(":");
-		Optional<Account> account = Optional.ofNullable(this.root.getAccountByName(actNames[0]));
 
-		if (account.isPresent() && actNames.length > 1) {
-			account = MdUtil.getSubAccountByName(account.get(), actNames[1]);
+		return NwQueryService.findAccount(this.root, keyVal);
+	} // end getAccount(String)
+
+	/**
+	 * @param keyVal Account name:ticker symbol
+	 * @return The Moneydance security account holding the ticker's security
+	 * in the named account
+	 */
+	private Optional<Account> getHoldingAccount(String keyVal) {
+		int separator = keyVal.lastIndexOf(':');
+
+		if (separator <= 0)
+			return Optional.empty();
+
+		CurrencyType security = this.securities
+			.getCurrencyByTickerSymbol(keyVal.substring(separator + 1));
+
+		if (security == null)
+			return Optional.empty();
+
+		return getAccount(keyVal.substring(0, separator)).flatMap(account -> account
+			.getSubAccounts().stream()
+			.filter(subAccount -> subAccount.getAccountType() == Account.AccountType.SECURITY
+				&& subAccount.getCurrencyType() == security)
+			.findFirst());
+	} // end getHoldingAccount(String)
+
+	/**
+	 * Capture the Moneydance data needed for a security row.
+	 *
+	 * @param row          The grid row with cells to potentially change
+	 * @param val          The latest date cell in row
+	 * @param keyVal       The spreadsheet ticker symbol
+	 * @param snapshotList The list of snapshots to use
+	 * @return The captured row
+	 */
+	private MatchedRow capturePriceRow(GridRow row, CellHandler val, String keyVal,
+			SnapshotList snapshotList) {
+		CurrencyType security = snapshotList.getSecurity();
+		String seriesKey = HistoryStore.securityKey(security);
+		ScaledValues stored = new ScaledValues(this.computedDates.length);
+		boolean isStored = this.historyStore.readInto(seriesKey, this.computedDates, stored);
+
+		return new MatchedRow(getEarlierCells(row), val, keyVal, SyncEvent.ValueKind.PRICE,
+			new SecurityNames(security.getName(), security.getTickerSymbol()),
+			ScaledValues.of(getTodaysPrice(snapshotList)), seriesKey,
+			isStored
+				? MdDataSnapshot.fixed(this.computedDates, stored)
+				: MdDataSnapshot.capturePrices(snapshotList, this.computedDates), isStored);
+	} // end capturePriceRow(GridRow, CellHandler, String, SnapshotList)
+
+	/**
+	 * Capture the Moneydance data needed for an account row.
+	 *
+	 * @param row     The grid row with cells to potentially change
+	 * @param val     The latest date cell in row
+	 * @param keyVal  The spreadsheet name of this account
+	 * @param account The corresponding Moneydance account
+	 * @return The captured row
+	 */
+	private MatchedRow captureBalanceRow(GridRow row, CellHandler val, String keyVal,
+			Account account) {
+		BigDecimal balance = MdUtil.getCurrentBalance(account);
+		String seriesKey = HistoryStore.accountKey(account);
+		ScaledValues stored = new ScaledValues(this.computedDates.length);
+		boolean isStored = this.historyStore.readInto(seriesKey, this.computedDates, stored);
+
+		return new MatchedRow(getEarlierCells(row), val, keyVal, SyncEvent.ValueKind.BALANCE, null,
+			ScaledValues.of(balance), seriesKey, isStored
+				? MdDataSnapshot.fixed(this.computedDates, stored)
+				: MdDataSnapshot.captureBalances(this.root.getBook(), account, balance,
+					this.computedDates), isStored);
+	} // end captureBalanceRow(GridRow, CellHandler, String, Account)
+
+	/**
+	 * Capture the Moneydance data needed for a security holding row, whose
+	 * values are the market value of the shares held.
+	 *
+	 * @param row             The grid row with cells to potentially change
+	 * @param val             The latest date cell in row
+	 * @param keyVal          The spreadsheet name of this holding
+	 * @param securityAccount The corresponding Moneydance security account
+	 * @return The captured row
+	 */
+	private MatchedRow captureHoldingRow(GridRow row, CellHandler val, String keyVal,
+			Account securityAccount) {
+		SnapshotList snapshotList = new SnapshotList(securityAccount.getCurrencyType());
+		BigDecimal shares = MdUtil.getCurrentBalance(securityAccount);
+		BigDecimal price = getTodaysPrice(snapshotList);
+		int decimalPlaces = securityAccount.getParentAccount().getCurrencyType().getDecimalPlaces();
+		ScaledValues todaysValue = ScaledValues.of(MdDataSnapshot.marketValue(shares, price,
+			decimalPlaces));
+
+		if (snapshotList.getTodaysSnapshot().isEmpty()) {
+			// no price yet, so no market value either
+			todaysValue.setMissing(0);
 		}
+		String seriesKey = HistoryStore.holdingKey(securityAccount);
+		ScaledValues stored = new ScaledValues(this.computedDates.length);
+		boolean isStored = this.historyStore.readInto(seriesKey, this.computedDates, stored);
+
+		return new MatchedRow(getEarlierCells(row), val, keyVal, SyncEvent.ValueKind.HOLDING, null,
+			todaysValue, seriesKey,
+			isStored
+				? MdDataSnapshot.fixed(this.computedDates, stored)
+				: MdDataSnapshot.captureHoldings(this.root.getBook(), securityAccount, shares,
+					snapshotList, decimalPlaces, this.computedDates), isStored);
+	} // end captureHoldingRow(GridRow, CellHandler, String, Account)
 
-		return account;
-	} // end getAccount(String)
+	/**
+	 * @param row The grid row to use
+	 * @return The earlier date cells in row, null where not numeric
+	 */
+	private CellHandler[] getEarlierCells(GridRow row) {
+		CellHandler[] cells = new CellHandler[this.earlierDates.length];
+
+		for (int i = 0; i < cells.length; ++i) {
+			cells[i] = this.sheetDoc.getCellHandler(this.grid, row, i + 1);
+		}
+
+		return cells;
+	} // end getEarlierCells(GridRow)
+
+	/**
+	 * Compute the earlier date values of all matched rows in parallel, only
+	 * for the dates we compute. Only captured data is used, so no Moneydance
+	 * model objects are touched.
+	 *
+	 * @param matchedRows The rows to compute values for
+	 * @return Values as of the end of each computed date, in matched row order
+	 */
+	private List<ScaledValues> getEarlierValues(List<MatchedRow> matchedRows) {
+		final int[] asOfDates = this.computedDates;
+
+		return this.computePool.submit(() -> matchedRows.parallelStream()
+			.map(mRow -> {
+				this.syncWorker.checkCancelled();
+
+				return mRow.series().valuesAsOf(asOfDates);
+			}).toList()).join();
+	} // end getEarlierValues(List<MatchedRow>)
+
+	/**
+	 * Record newly computed earlier date values in our history store.
+	 *
+	 * @param matchedRows   The rows values were computed for
+	 * @param earlierValues Values as of the end of each computed date, in matched row order
+	 * @param generation    The history store generation when the rows were captured
+	 */
+	private void storeHistory(List<MatchedRow> matchedRows, List<ScaledValues> earlierValues,
+			long generation) {
+		for (int i = 0; i < matchedRows.size(); ++i) {
+			MatchedRow mRow = matchedRows.get(i);
+
+			if (!mRow.isStored()) {
+				this.historyStore.update(mRow.seriesKey(), this.computedDates, earlierValues.get(i),
+					generation);
+			}
+			this.syncWorker.checkCancelled();
+		} // end for
+
+	} // end storeHistory(List<MatchedRow>, List<ScaledValues>, long)
+
+	/**
+	 * Compare the matched rows with Moneydance values in parallel over blocks
+	 * of rows. Spreadsheet values were read when the rows were matched, so no
+	 * office calls are made here.
+	 *
+	 * @param matchedRows   The rows to compare
+	 * @param earlierValues Values as of the end of each computed date, in matched row order
+	 * @return The changes found in each block, in row order
+	 */
+	private List<DiffBuffer> diffRows(List<MatchedRow> matchedRows,
+			List<ScaledValues> earlierValues) {
+		int numRows = matchedRows.size();
+		int numBlocks = (numRows + DIFF_BLOCK_ROWS - 1) / DIFF_BLOCK_ROWS;
+		AtomicInteger rowsDiffed = new AtomicInteger();
+
+		return this.computePool.submit(() -> IntStream.range(0, numBlocks).parallel()
+			.mapToObj(block -> {
+				int start = block * DIFF_BLOCK_ROWS;
+				int end = Math.min(numRows, start + DIFF_BLOCK_ROWS);
+				DiffBuffer diffs = diffBlock(matchedRows, earlierValues, start, end);
+
+				// comparing is the second half of our progress
+				this.syncWorker.reportProgress(numRows + rowsDiffed.addAndGet(end - start),
+					2 * numRows);
+
+				return diffs;
+			}).toList()).join();
+	} // end diffRows(List<MatchedRow>, List<ScaledValues>)
+
+	/**
+	 * @param matchedRows   The rows to compare
+	 * @param earlierValues Values as of the end of each computed date, in matched row order
+	 * @param start         Index of the first row in this block
+	 * @param end           Index after the last row in this block
+	 * @return The changes found in this block
+	 */
+	private DiffBuffer diffBlock(List<MatchedRow> matchedRows, List<ScaledValues> earlierValues,
+			int start, int end) {
+		DiffBuffer diffs = new DiffBuffer();
+
+		for (int i = start; i < end; ++i) {
+			this.syncWorker.checkCancelled();
+			MatchedRow mRow = matchedRows.get(i);
+
+			if (mRow.security() != null) {
+				setPriceIfDiff(diffs, mRow.val(), mRow.todaysValue(), 0, mRow.security(), "today");
+				setEarlierPricesIfDiff(diffs, mRow.earlierCells(), mRow.security(),
+					earlierValues.get(i));
+			} else {
+				setBalanceIfDiff(diffs, mRow.val(), mRow.todaysValue(), 0, mRow.keyVal(),
+					mRow.kind(), "today");
+				setEarlierBalsIfDiff(diffs, mRow.earlierCells(), mRow.keyVal(), mRow.kind(),
+					earlierValues.get(i));
+			}
+		} // end for
+
+		return diffs;
+	} // end diffBlock(List<MatchedRow>, List<ScaledValues>, int, int)
+
+	/**
+	 * Report and stage the changes found in one block of rows.
+	 *
+	 * @param diffs The changes found
+	 */
+	private void mergeDiffs(DiffBuffer diffs) {
+		for (int i = 0; i < diffs.events.size(); ++i) {
+			SyncEvent.ValueChanged event = diffs.events.get(i);
+			CellHandler val = diffs.changes.get(i);
+			this.syncWorker.publishEvent(event);
+			this.diffEntries.add(new DiffEntry(event.key(), getColumnDate(val.column), event.kind(),
+				event.oldValue(), event.newValue(), val.column, val.row));
+		} // end for
+		this.sheetDoc.addChanges(diffs.changes);
+		this.numPricesSet += diffs.numPricesSet;
+		this.numBalancesSet += diffs.numBalancesSet;
+		this.numHidden += diffs.numHidden;
+
+	} // end mergeDiffs(DiffBuffer)
 
 	/**
 	 * @param snapshotList The list of snapshots to use
@@ -156,31 +783,19 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 			return BigDecimal.ONE; // default price to 1 when no snapshot
 
 		if (!MdUtil.isIBondTickerPrefix(security.getTickerSymbol())) {
-			// add this snapshot to our collection
-			getSecurityListForDate(currentSnapshot.get())
-				.add(security.getName() + " (" + security.getTickerSymbol() + ')');
+			// add this snapshot to our collection, once for price and holding rows alike
+			List<String> securityList = getSecurityListForDate(currentSnapshot.get());
+			String securityName = security.getName() + " (" + security.getTickerSymbol() + ')';
+
+			if (!securityList.contains(securityName)) {
+				securityList.add(securityName);
+			}
 		}
 
 		return MdUtil.getAndValidateCurrentSnapshotPrice(security, currentSnapshot.get(),
 			this.locale, this.syncWorker::display);
 	} // end getTodaysPrice(SnapshotList)
 
-	/**
-	 * @param snapshotList The list of snapshots to use
-	 * @param asOfDates    The dates to obtain the price for
-	 * @return Security prices as of the end of each date in asOfDates
-	 */
-	private BigDecimal[] getPricesAsOfDates(SnapshotList snapshotList, int[] asOfDates) {
-		BigDecimal[] prices = new BigDecimal[asOfDates.length];
-
-		for (int i = prices.length - 1; i >= 0; --i) {
-			prices[i] = snapshotList.getSnapshotForDate(asOfDates[i])
-					.map(SnapshotList::getPrice).orElse(BigDecimal.ONE);
-		} // end for
-
-		return prices;
-	} // end getPricesAsOfDates(SnapshotList, int[])
-
 	/**
 	 * @param currentSnapshot Last currency snapshot before, or on, today
 	 * @return The list of security names with the same date
@@ -232,10 +847,15 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 
 			if (marketDate.getMonthValue() == oldDate.getMonthValue()
 					&& marketDate.getYear() == oldDate.getYear()) {
-				this.syncWorker.display("Change the rightmost date from %s to %s"
-					.formatted(oldDate.format(dateFmt), marketDate.format(dateFmt)));
+				this.syncWorker.publishEvent(new SyncEvent.DateChanged(oldDate, marketDate,
+					"Change the rightmost date from %s to %s"
+					.formatted(oldDate.format(dateFmt), marketDate.format(dateFmt))));
 
 				this.latestDateCell.setNewValue(MdUtil.convLocalToDateInt(marketDate));
+				this.diffEntries.add(new DiffEntry("Date", oldDate, SyncEvent.ValueKind.DATE,
+					BigDecimal.valueOf(MdUtil.convLocalToDateInt(oldDate)),
+					BigDecimal.valueOf(MdUtil.convLocalToDateInt(marketDate)),
+					this.latestDateCell.column, this.latestDateCell.row));
 				++this.numDatesSet;
 			} else if (marketDate.isAfter(oldDate)) {
 				handleNewMonth(marketDate, oldDate);
@@ -252,202 +872,399 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 		this.syncWorker.display("A new month column is needed to change date from %s to %s"
 			.formatted(oldDate.format(dateFmt), marketDate.format(dateFmt)));
 
-		this.calcDoc.forgetChanges();
+		this.sheetDoc.forgetChanges();
+		this.diffEntries.clear();
 
 	} // end handleNewMonth(LocalDate, LocalDate)
 
 	/**
-	 * Set the spreadsheet security price if it differs from Moneydance for the
-	 * latest date column found in the spreadsheet.
-	 *
-	 * @param val          The cell to potentially change
-	 * @param snapshotList The list of snapshots to use
+	 * @param diffs    Where to record any change
+	 * @param val      The cell to potentially change
+	 * @param prices   The new prices
+	 * @param index    Index of the new price in prices
+	 * @param security Names of the corresponding Moneydance security
+	 * @param dayStr   The applicable day
 	 */
-	private void setTodaysPriceIfDiff(CellHandler val, SnapshotList snapshotList) {
-		BigDecimal price = getTodaysPrice(snapshotList);
-		setPriceIfDiff(val, price, snapshotList.getSecurity(), "today");
+	private void setPriceIfDiff(DiffBuffer diffs, CellHandler val, ScaledValues prices, int index,
+			SecurityNames security, String dayStr) {
+		if (val instanceof FloatCellHandler floatVal) {
+			double oldVal = floatVal.getDoubleValue();
+
+			if (prices.equalsRounded(index, oldVal))
+				return; // no change and nothing allocated
+
+			BigDecimal price = prices.get(index);
+			BigDecimal oldPrice = MdUtil.roundPrice(oldVal);
+
+			if (isHiddenChange(val, oldPrice, price)) {
+				++diffs.numHidden;
+			} else if (price.compareTo(oldPrice) != 0) {
+				NumberFormat priceFmt = this.valueFormats.getCurrencyFormat(oldPrice, price);
+				diffs.addChange(new SyncEvent.ValueChanged(security.ticker(), dayStr,
+					SyncEvent.ValueKind.PRICE, oldPrice, price,
+					"Change %s (%s) price for %s from %s to %s (<span class=\"%s\">%+.2f%%</span>)"
+					.formatted(security.name(), security.ticker(), dayStr,
+					priceFmt.format(oldPrice), priceFmt.format(price), HTMLPane.getSpanCl(price, oldPrice),
+					(price.doubleValue() / oldPrice.doubleValue() - 1) * 100)), val);
+				++diffs.numPricesSet;
+			}
+		}
 
-	} // end setTodaysPriceIfDiff(CellHandler, SnapshotList)
+	} // end setPriceIfDiff(DiffBuffer, CellHandler, ScaledValues, int, SecurityNames, String)
 
 	/**
 	 * @param val      The cell to potentially change
-	 * @param price    The new price
-	 * @param security The corresponding Moneydance security data
-	 * @param dayStr   The applicable day
+	 * @param oldValue The spreadsheet value
+	 * @param newValue The new value
+	 * @return True when the change would not alter the value displayed in val
+	 * by more than our threshold, in units of its last displayed digit
 	 */
-	private void setPriceIfDiff(CellHandler val, BigDecimal price, CurrencyType security,
-			String dayStr) {
-		Number oldVal = val.getValue();
+	private boolean isHiddenChange(CellHandler val, BigDecimal oldValue, BigDecimal newValue) {
+		if (this.displayDecimals == null || oldValue.compareTo(newValue) == 0)
+			return false;
 
-		if (oldVal instanceof Double) {
-			BigDecimal oldPrice = MdUtil.roundPrice(oldVal.doubleValue());
+		int decimals = this.displayDecimals[val.column - this.grid.getKeyColumn()];
 
-			if (price.compareTo(oldPrice) != 0) {
-				NumberFormat priceFmt = MdUtil.getCurrencyFormat(this.locale, oldPrice, price);
-				this.syncWorker.display(
-					"Change %s (%s) price for %s from %s to %s (<span class=\"%s\">%+.2f%%</span>)"
-					.formatted(security.getName(), security.getTickerSymbol(), dayStr,
-					priceFmt.format(oldPrice), priceFmt.format(price), HTMLPane.getSpanCl(price, oldPrice),
-					(price.doubleValue() / oldPrice.doubleValue() - 1) * 100));
+		if (decimals < 0)
+			return false;
 
-				val.setNewValue(price);
-				++this.numPricesSet;
-			}
+		BigDecimal shownChange = newValue.setScale(decimals, RoundingMode.HALF_UP)
+			.subtract(oldValue.setScale(decimals, RoundingMode.HALF_UP)).movePointRight(decimals);
+
+		return shownChange.abs().compareTo(this.hiddenThreshold) <= 0;
+	} // end isHiddenChange(CellHandler, BigDecimal, BigDecimal)
+
+	/**
+	 * Read the decimal places each value column displays, once per sync, when
+	 * changes not visible at that precision are to be skipped.
+	 */
+	private void loadDisplayDecimals() throws MduException {
+		List<GridRow> rows = this.grid.getRows();
+
+		if (Boolean.parseBoolean(getNwSyncProps().getProperty("hidden.changes.skip", "false"))
+				&& !rows.isEmpty()) {
+			int keyColumn = this.grid.getKeyColumn();
+			this.hiddenThreshold = new BigDecimal(
+				getNwSyncProps().getProperty("hidden.changes.threshold", "0").trim());
+			this.displayDecimals = this.sheetDoc.readDisplayDecimals(keyColumn,
+				keyColumn + this.latestColumn, rows.stream().mapToInt(GridRow::sheetRow).toArray());
 		}
 
-	} // end setPriceIfDiff(CellHandler, BigDecimal, CurrencyType, String)
+	} // end loadDisplayDecimals()
 
 	/**
 	 * Set the spreadsheet security prices if any differ from Moneydance.
 	 *
-	 * @param row          The row with cells to potentially change
-	 * @param snapshotList The list of snapshots to use
+	 * @param diffs    Where to record any changes
+	 * @param cells    The earlier date cells to potentially change
+	 * @param security Names of the corresponding Moneydance security
+	 * @param prices   Security prices as of the end of each computed date
 	 */
-	private void setEarlierPricesIfDiff(XCellRange row, SnapshotList snapshotList) {
-		BigDecimal[] prices = getPricesAsOfDates(snapshotList, this.earlierDates);
-
-		for (int i = 0; i < prices.length; ++i) {
-			CellHandler val = this.calcDoc.getCellHandlerByIndex(row, i + 1);
+	private void setEarlierPricesIfDiff(DiffBuffer diffs, CellHandler[] cells,
+			SecurityNames security, ScaledValues prices) {
+		// skip dates outside our history window
+		for (int i = this.firstVerifiedIndex; i < cells.length; ++i) {
+			CellHandler val = cells[i];
 
 			if (val != null) {
-				String dayStr = MdUtil.convDateIntToLocal(this.earlierDates[i]).format(dateFmt);
-				setPriceIfDiff(val, prices[i], snapshotList.getSecurity(), dayStr);
+				setPriceIfDiff(diffs, val, prices, i - this.firstComputedIndex, security,
+					this.earlierDayStrs[i]);
 			}
 		} // end for
 
-	} // end setEarlierPricesIfDiff(XCellRange, SnapshotList)
+	} // end setEarlierPricesIfDiff(DiffBuffer, CellHandler[], SecurityNames, ScaledValues)
 
 	/**
-	 * Set the spreadsheet account balance if it differs from Moneydance for the
-	 * latest date column found in the spreadsheet.
-	 *
-	 * @param val     The cell to potentially change
-	 * @param account The corresponding Moneydance account
-	 * @param keyVal  The spreadsheet name of this account
+	 * @param diffs    Where to record any change
+	 * @param val      The cell to potentially change
+	 * @param balances The new balances; cells whose balance is missing are skipped
+	 * @param index    Index of the new balance in balances
+	 * @param keyVal   The spreadsheet name of this account
+	 * @param kind     Balance, or holding for a security account's market value
+	 * @param dayStr   The applicable day
 	 */
-	private void setTodaysBalIfDiff(CellHandler val, Account account, String keyVal) {
-		BigDecimal balance = MdUtil.getCurrentBalance(account);
-		setBalanceIfDiff(val, balance, keyVal, "today");
+	private void setBalanceIfDiff(DiffBuffer diffs, CellHandler val, ScaledValues balances,
+			int index, String keyVal, SyncEvent.ValueKind kind, String dayStr) {
+		if (val instanceof FloatCellHandler floatVal && !balances.isMissing(index)) {
+			// compare balance rounded to 13 digit precision
+			double oldBalance = floatVal.getDoubleValue();
 
-	} // end setTodaysBalIfDiff(CellHandler, Account, String)
+			if (balances.equalsRounded(index, oldBalance))
+				return; // no change and nothing allocated
+
+			BigDecimal balance = balances.get(index);
+			BigDecimal oldBal = MdUtil.roundPrice(oldBalance);
+
+			if (isHiddenChange(val, oldBal, balance)) {
+				++diffs.numHidden;
+			} else if (balance.compareTo(oldBal) != 0) {
+				NumberFormat nf = val.isCurrency()
+					? this.valueFormats.getCurrencyFormat(oldBal, balance)
+					: this.valueFormats.getNumberFormat(oldBal, balance);
+
+				diffs.addChange(new SyncEvent.ValueChanged(keyVal, dayStr, kind,
+					oldBal, balance, "Change %s balance for %s from %s to %s"
+					.formatted(keyVal, dayStr, nf.format(oldBal), nf.format(balance))), val);
+				++diffs.numBalancesSet;
+			}
+		}
+
+	} // end setBalanceIfDiff(DiffBuffer, CellHandler, ScaledValues, int, String, ValueKind, String)
 
 	/**
-	 * @param val     The cell to potentially change
-	 * @param balance The new balance
-	 * @param keyVal  The spreadsheet name of this account
-	 * @param dayStr  The applicable day
+	 * Set the spreadsheet account balances if any differ from Moneydance.
+	 *
+	 * @param diffs    Where to record any changes
+	 * @param cells    The earlier date cells to potentially change
+	 * @param keyVal   The spreadsheet name of this account
+	 * @param kind     Balance, or holding for a security account's market value
+	 * @param balances Account balances as of the end of each computed date
 	 */
-	private void setBalanceIfDiff(CellHandler val, BigDecimal balance, String keyVal,
-			String dayStr) {
-		Number oldBalance = val.getValue();
+	private void setEarlierBalsIfDiff(DiffBuffer diffs, CellHandler[] cells, String keyVal,
+			SyncEvent.ValueKind kind, ScaledValues balances) {
+		// skip dates outside our history window
+		for (int i = this.firstVerifiedIndex; i < cells.length; ++i) {
+			CellHandler val = cells[i];
 
-		if (oldBalance instanceof Double) {
-			// compare balance rounded to 13 digit precision
-			BigDecimal oldBal = MdUtil.roundPrice(oldBalance.doubleValue());
+			if (val != null) {
+				setBalanceIfDiff(diffs, val, balances, i - this.firstComputedIndex, keyVal, kind,
+					this.earlierDayStrs[i]);
+			}
+		} // end for
 
-			if (balance.compareTo(oldBal) != 0) {
-				NumberFormat nf = val.isCurrency()
-					? MdUtil.getCurrencyFormat(this.locale, oldBal, balance)
-					: MdUtil.getNumberFormat(this.locale, oldBal, balance);
+	} // end setEarlierBalsIfDiff(DiffBuffer, CellHandler[], String, ValueKind, ScaledValues)
+
+	/**
+	 * Load the spreadsheet grid, from our cache when the document hasn't
+	 * changed since it was cached, otherwise from the office process.
+	 *
+	 * @return The spreadsheet grid, or null when unavailable
+	 */
+	private SheetGrid loadSheetGrid() throws MduException {
+		String url = this.sheetDoc.getUrlString();
+		String changeToken = Boolean.parseBoolean(getNwSyncProps()
+			.getProperty("grid.cache.enabled", "true")) ? this.sheetDoc.getChangeToken() : null;
+		Optional<SheetGrid> cachedGrid = this.gridCache.load(url, changeToken);
 
-				this.syncWorker.display("Change %s balance for %s from %s to %s"
-					.formatted(keyVal, dayStr, nf.format(oldBal), nf.format(balance)));
+		if (cachedGrid.isPresent()) {
+			// rows ignored when cached may match securities or accounts added since
+			Optional<String> newTarget = cachedGrid.get().getIgnoredKeys().stream()
+				.filter(this::isTargetKey).findFirst();
 
-				val.setNewValue(balance);
-				++this.numBalancesSet;
+			if (newTarget.isEmpty()) {
+				MdLog.debug("Loaded unchanged %s from grid cache".formatted(url));
+
+				return cachedGrid.get();
 			}
+			MdLog.debug("Rereading %s since row %s now matches".formatted(url, newTarget.get()));
+		}
+		SheetGrid sheetGrid = this.sheetDoc instanceof XlsxDoc xlsxDoc
+			? xlsxDoc.readSheetGrid(this.syncWorker, this::isTargetKey)
+			: readSheetGrid();
+
+		if (sheetGrid != null) {
+			this.gridCache.save(url, changeToken, sheetGrid);
 		}
 
-	} // end setBalanceIfDiff(CellHandler, BigDecimal, String, String)
+		return sheetGrid;
+	} // end loadSheetGrid()
 
 	/**
-	 * Set the spreadsheet account balances if any differ from Moneydance.
+	 * Read the spreadsheet grid from the office process. The text displayed in
+	 * the key column, including formula results, is read in bulk and each key
+	 * classified, so only rows matching a Moneydance security or account have
+	 * their cells read, a contiguous run of such rows at a time. The keys are
+	 * kept in the grid, so a cached grid needs no key reads at all. When more
+	 * than one office connection is configured, the runs are split into bands
+	 * read concurrently over separate bridges.
 	 *
-	 * @param row     The row with cells to potentially change
-	 * @param account The corresponding Moneydance account
-	 * @param keyVal  The spreadsheet name of this account
+	 * @return The spreadsheet grid, or null when unavailable
 	 */
-	private void setEarlierBalsIfDiff(XCellRange row, Account account, String keyVal) {
-		BigDecimal[] balances = MdUtil.getBalancesAsOfDates(this.root.getBook(), account,
-			this.earlierDates);
+	private SheetGrid readSheetGrid() throws MduException {
+		int numConnections = Integer.parseInt(
+			getNwSyncProps().getProperty("office.read.connections", "1").trim());
 
-		for (int i = 0; i < balances.length; ++i) {
-			CellHandler val = this.calcDoc.getCellHandlerByIndex(row, i + 1);
+		try (BridgePool bridgePool = BridgePool.open(this.calcDoc, this.connectDescription,
+				numConnections)) {
 
-			if (val != null) {
-				String dayStr = MdUtil.convDateIntToLocal(this.earlierDates[i]).format(dateFmt);
-				setBalanceIfDiff(val, balances[i], keyVal, dayStr);
+			return readSheetGrid(bridgePool);
+		}
+	} // end readSheetGrid()
+
+	/**
+	 * @param bridgePool The document open over each bridge to read with
+	 * @return The spreadsheet grid, or null when unavailable
+	 */
+	private SheetGrid readSheetGrid(BridgePool bridgePool) throws MduException {
+		CellRangeAddress usedArea = this.calcDoc.getUsedArea();
+		int keyColumn = usedArea.StartColumn;
+		String[] keys = this.calcDoc.readColumnText(keyColumn, usedArea.StartRow, usedArea.EndRow);
+		int dateIndex = findDateRow(keys);
+
+		if (dateIndex < 0)
+			return null; // can't synchronize without a date row
+
+		GridRow dateRow = readDateRow(keyColumn, usedArea.StartRow + dateIndex,
+			Math.max(usedArea.EndColumn, keyColumn + 1));
+		int latestColumn = dateRow.kinds().length - 1;
+		List<Integer> targetRows = new ArrayList<>();
+		List<String> targetKeys = new ArrayList<>();
+		List<String> ignoredKeys = new ArrayList<>();
+
+		for (int i = dateIndex + 1; latestColumn > 0 && i < keys.length; ++i) {
+			String key = keys[i];
+
+			if (key != null) {
+				if (isTargetKey(key)) {
+					targetRows.add(usedArea.StartRow + i);
+					targetKeys.add(key);
+				} else {
+					MdLog.all("Ignoring row %s".formatted(key));
+					ignoredKeys.add(key);
+				}
+			}
+		} // end for
+		List<RowBand> bands = new ArrayList<>();
+		int maxBandRows = Math.ceilDiv(targetRows.size(), bridgePool.size());
+
+		for (int start = 0; start < targetRows.size(); ) {
+			int end = start;
+
+			while (end + 1 < targetRows.size() && targetRows.get(end + 1) == targetRows.get(end) + 1
+					&& end + 1 - start < maxBandRows) {
+				++end; // extend this run of contiguous rows
 			}
+			bands.add(new RowBand(targetRows.get(start), targetKeys.subList(start, end + 1)));
+			start = end + 1;
 		} // end for
+		List<GridRow> rows = new ArrayList<>();
+		bridgePool.readBands(bands, (doc, band) -> readRowBand(doc, band, keyColumn, latestColumn),
+			this.computePool).forEach(rows::addAll);
 
-	} // end setEarlierBalsIfDiff(XCellRange, Account, String)
+		return new SheetGrid(keyColumn, dateRow, rows, ignoredKeys);
+	} // end readSheetGrid(BridgePool)
 
 	/**
-	 * Capture row with 'Date' in first column.
+	 * Read a band of contiguous rows in one block.
 	 *
-	 * @param rowIterator Spreadsheet row iterator
-	 * @return True when found
+	 * @param doc          The document to read from
+	 * @param band         The rows to read
+	 * @param keyColumn    Zero-based sheet column index of the key column
+	 * @param latestColumn Index of the rightmost date following the key column
+	 * @return Grid rows with a numeric value for the rightmost date
 	 */
-	private boolean findDateRow(XEnumeration rowIterator)
+	private List<GridRow> readRowBand(CalcDoc doc, RowBand band, int keyColumn, int latestColumn)
 			throws MduException {
-		while (rowIterator.hasMoreElements()) {
-			XCellRange row = next(XCellRange.class, rowIterator); // get next row
-			XCell c = this.calcDoc.getCellByIndex(row, 0); // get its first column
+		int numRows = band.keys().size();
+		CellBlock block = doc.readBlock(keyColumn, band.firstRow(),
+			keyColumn + latestColumn, band.firstRow() + numRows - 1);
+		List<GridRow> rows = new ArrayList<>(numRows);
 
-			if (CalcDoc.isContentType(c, TEXT)
-					&& "Date".equalsIgnoreCase(CellHandler.asDisplayText(c))) {
-				this.dateRow = row;
+		for (int i = 0; i < numRows; ++i) {
+			byte[] kinds = block.kinds()[i];
 
-				return true;
+			if (kinds[latestColumn] != SheetGrid.NOT_NUMERIC) {
+				rows.add(new GridRow(band.firstRow() + i, band.keys().get(i), kinds,
+					block.values()[i]));
 			}
-		} // end while
+		} // end for
+		this.syncWorker.checkCancelled();
+
+		return rows;
+	} // end readRowBand(CalcDoc, RowBand, int, int)
+
+	/**
+	 * @param key The text displayed in a row's key column
+	 * @return True when key names a Moneydance security or account
+	 */
+	private boolean isTargetKey(String key) {
+
+		return this.securities.getCurrencyByTickerSymbol(key) != null || getAccount(key).isPresent()
+			|| getHoldingAccount(key).isPresent();
+	} // end isTargetKey(String)
+
+	/**
+	 * Find the row with 'Date' in the key column.
+	 *
+	 * @param keys Text displayed in the key column of the used area
+	 * @return Index of the date row in keys when found, otherwise -1
+	 */
+	private int findDateRow(String[] keys) {
+		for (int i = 0; i < keys.length; ++i) {
+			if ("Date".equalsIgnoreCase(keys[i]))
+				return i;
+		} // end for
 
 		this.syncWorker.display("Unable to find row with 'Date' in first column in %s"
 			.formatted(this.calcDoc));
 
-		return false;
-	} // end findDateRow(XEnumeration)
+		return -1;
+	} // end findDateRow(String[])
+
+	/**
+	 * Read the whole date row in one block, rather than a cell at a time.
+	 *
+	 * @param keyColumn  Zero-based sheet column index of the key column
+	 * @param sheetRow   Zero-based sheet row index of the row with 'Date' in first column
+	 * @param lastColumn Zero-based sheet column index of the used area's last column
+	 * @return Grid row holding each consecutive date following the first column
+	 */
+	private GridRow readDateRow(int keyColumn, int sheetRow, int lastColumn) throws MduException {
+		CellBlock block = this.calcDoc.readBlock(keyColumn, sheetRow, lastColumn, sheetRow);
+		byte[] kinds = block.kinds()[0];
+		int length = 1;
+
+		while (length < kinds.length && kinds[length] == SheetGrid.DATE) {
+			++length;
+		}
+		kinds = Arrays.copyOf(kinds, length);
+		kinds[0] = SheetGrid.NOT_NUMERIC;
+
+		return new GridRow(sheetRow, "Date", kinds, Arrays.copyOf(block.values()[0], length));
+	} // end readDateRow(int, int, int)
 
 	/**
 	 * Capture index of the rightmost date in the date row. Also capture the
-	 * corresponding cell handler.
+	 * corresponding cell handler, and index every date in the row in one pass
+	 * so later phases can map between dates and columns directly.
 	 *
 	 * @return True when found
 	 */
 	private boolean findLatestDate() {
-		int cellIndex = 0;
-		CellHandler c = null;
-		ArrayList<LocalDate> dates = new ArrayList<>();
-
-		do {
-			// capture the rightmost date cell handler so far
-			this.latestDateCell = (DateCellHandler) c;
-
-			if (this.latestDateCell != null) {
-				dates.add(this.latestDateCell.getDateValue());
-			}
-			c = this.calcDoc.getCellHandlerByIndex(this.dateRow, ++cellIndex);
-		} while (c instanceof DateCellHandler);
+		GridRow dateRow = this.grid.getDateRow();
+		this.latestColumn = this.grid.getLatestColumn();
 
-		if (cellIndex == 1) {
+		if (this.latestColumn == 0) {
 			this.syncWorker.display("Unable to find any dates in the row with 'Date' in first column in %s"
-				.formatted(this.calcDoc));
+				.formatted(this.sheetDoc));
 
 			return false;
 		}
 
-		// capture index of the rightmost date in the date row
-		this.latestColumn = cellIndex - 1;
-
-		// save each earlier date
-		this.earlierDates = new int[dates.size() - 1];
-
-		for (int i = 0; i < this.earlierDates.length; ++i) {
-			this.earlierDates[i] = MdUtil.convLocalToDateInt(dates.get(i));
-		}
+		// capture the rightmost date cell handler
+		this.latestDateCell = (DateCellHandler) this.sheetDoc.getCellHandler(this.grid, dateRow,
+			this.latestColumn);
+
+		// index each date and save each earlier one
+		double[] dateNums = dateRow.values();
+		this.columnDates = new LocalDate[dateNums.length];
+		this.dateIndexes = HashMap.newHashMap(dateNums.length);
+		this.earlierDates = new int[this.latestColumn - 1];
+		this.earlierDayStrs = new String[this.earlierDates.length];
+
+		for (int i = 1; i < dateNums.length; ++i) {
+			LocalDate date = this.sheetDoc.getLocalDate(dateNums[i]);
+			this.columnDates[i] = date;
+			this.dateIndexes.putIfAbsent(date, i);
+
+			if (i < this.latestColumn) {
+				this.earlierDates[i - 1] = MdUtil.convLocalToDateInt(date);
+				this.earlierDayStrs[i - 1] = date.format(dateFmt);
+			}
+		} // end for
 
 		this.syncWorker.display("Found date [%s] in %s"
-			.formatted(this.latestDateCell.getDateValue().format(dateFmt), this.calcDoc));
+			.formatted(this.latestDateCell.getDateValue().format(dateFmt), this.sheetDoc));
 
 		return true;
 	} // end findLatestDate()
@@ -458,34 +1275,135 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 	 * @return Optional summary of the changes committed
 	 */
 	public Optional<String> commitChanges() {
+
+		return commitChanges(WorkMonitor.NONE);
+	} // end commitChanges()
+
+	/**
+	 * Commit any changes to the spreadsheet document. Changes to cells edited
+	 * since the sync read them are skipped and reported, while the rest are
+	 * applied. When cancelled, or when writing fails, the changes not yet
+	 * written stay staged and our counts are reduced to match them.
+	 *
+	 * @param monitor Where to report progress and check for cancellation
+	 * @return Optional summary of the changes committed
+	 */
+	public Optional<String> commitChanges(WorkMonitor monitor) {
 		Optional<String> commitText = Optional.empty();
 
-		if (isModified()) {
-			this.calcDoc.commitChanges();
+		if (!this.priceImports.isEmpty()) {
+			commitText = Optional.of(this.priceImports.apply(this.historyStore, monitor));
+		} else if (isModified()) {
+			List<CellHandler> conflicts;
+			try {
+				conflicts = this.sheetDoc.commitChanges(monitor);
+			} catch (CancellationException e) {
+				throw new CancellationException(recountStagedChanges());
+			} catch (RuntimeException e) {
+				recountStagedChanges();
+				throw e;
+			}
+			String conflictText = describeConflicts(conflicts);
 			String msg = (this.numDatesSet == 1)
 				? "Changed %d security price%s, %d account balance%s and the rightmost date"
 				: "Changed %d security price%s, %d account balance%s and %d dates";
 			commitText = Optional.of(msg.formatted(
 				this.numPricesSet, this.numPricesSet == 1 ? "" : "s",
-				this.numBalancesSet, this.numBalancesSet == 1 ? "" : "s", this.numDatesSet));
+				this.numBalancesSet, this.numBalancesSet == 1 ? "" : "s", this.numDatesSet)
+				+ conflictText);
 		}
 
 		forgetChanges();
 
 		return commitText;
-	} // end commitChanges()
+	} // end commitChanges(WorkMonitor)
+
+	/**
+	 * Reduce our diff entries and counts to the changes a cancelled or failed
+	 * commit left staged.
+	 *
+	 * @return Description of the cancelled commit
+	 */
+	private String recountStagedChanges() {
+		Set<Long> staged = new HashSet<>();
+		this.sheetDoc.getChanges().forEach(cHandler ->
+			staged.add(cellKey(cHandler.column, cHandler.row)));
+		int total = this.diffEntries.size();
+		this.diffEntries.removeIf(entry -> !staged.contains(cellKey(entry.column(), entry.row())));
+		this.numPricesSet = 0;
+		this.numBalancesSet = 0;
+		this.numDatesSet = 0;
+
+		for (DiffEntry entry : this.diffEntries) {
+			switch (entry.kind()) {
+				case PRICE -> ++this.numPricesSet;
+				case BALANCE, HOLDING -> ++this.numBalancesSet;
+				case DATE -> ++this.numDatesSet;
+			}
+		} // end for
+
+		return "Commit cancelled with %d of %d change%s not yet written and still staged"
+			.formatted(this.diffEntries.size(), total, total == 1 ? "" : "s");
+	} // end recountStagedChanges()
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @return Key identifying the cell at the supplied position
+	 */
+	private static long cellKey(int column, int row) {
+
+		return (long) column << 32 | row;
+	} // end cellKey(int, int)
+
+	/**
+	 * Remove skipped changes from our counts and describe them.
+	 *
+	 * @param conflicts Changes skipped because their cells were edited since the sync
+	 * @return Text to append to the commit summary, empty when nothing was skipped
+	 */
+	private String describeConflicts(List<CellHandler> conflicts) {
+		if (conflicts.isEmpty())
+			return "";
+
+		Map<Long, DiffEntry> entries = new HashMap<>();
+		this.diffEntries.forEach(entry ->
+			entries.put(cellKey(entry.column(), entry.row()), entry));
+		StringJoiner skipped = new StringJoiner(", ");
+
+		for (CellHandler conflict : conflicts) {
+			DiffEntry entry = entries.get(cellKey(conflict.column, conflict.row));
+
+			if (entry == null) {
+				skipped.add(conflict.toString());
+			} else {
+				skipped.add("%s for %s".formatted(entry.key(), entry.date().format(dateFmt)));
+
+				switch (entry.kind()) {
+					case PRICE -> --this.numPricesSet;
+					case BALANCE, HOLDING -> --this.numBalancesSet;
+					case DATE -> --this.numDatesSet;
+				}
+			}
+		} // end for
+
+		return "; skipped %d change%s to cells edited since the sync: %s".formatted(
+			conflicts.size(), conflicts.size() == 1 ? "" : "s", skipped);
+	} // end describeConflicts(List<CellHandler>)
 
 	/**
 	 * Clear out any pending changes.
 	 */
 	public void forgetChanges() {
-		if (this.calcDoc != null) {
-			this.calcDoc.forgetChanges();
+		if (this.sheetDoc != null) {
+			this.sheetDoc.forgetChanges();
 		}
 		this.numPricesSet = 0;
 		this.numBalancesSet = 0;
 		this.numDatesSet = 0;
 		this.securitySnapshots.clear();
+		this.diffEntries.clear();
+		this.priceImports.clear();
 
 	} // end forgetChanges()
 
@@ -494,9 +1412,25 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 	 */
 	public boolean isModified() {
 
-		return this.calcDoc != null && this.calcDoc.isModified();
+		return this.sheetDoc != null && this.sheetDoc.isModified() || !this.priceImports.isEmpty();
 	} // end isModified()
 
+	/**
+	 * Load the xlsx workbook named in our properties, or otherwise the
+	 * currently open office spreadsheet document, into this instance.
+	 */
+	private void loadSheetDoc() throws MduException {
+		String xlsxPath = getNwSyncProps().getProperty("xlsx.workbook.path", "").trim();
+
+		if (xlsxPath.isEmpty()) {
+			loadCalcDoc();
+			this.sheetDoc = this.calcDoc;
+		} else {
+			this.sheetDoc = XlsxDoc.open(Path.of(xlsxPath));
+		}
+
+	} // end loadSheetDoc()
+
 	/**
 	 * Load the currently open spreadsheet document into this instance.
 	 */
@@ -508,6 +1442,7 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 			calcDoc = getCalcDoc();
 		}
 		this.calcDoc = calcDoc;
+		this.syncWorker.checkCancelled();
 
 	} // end loadCalcDoc()
 
@@ -566,20 +1501,17 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 			throw new MduException(null, "Unable to obtain %s from %s on the class path",
 				OFFICE_PATH, propertiesFileName);
 
-		XComponentContext remoteContext;
-		try {
-			List<String> oooOptions = Arrays.asList(Bootstrap.getDefaultOptions());
-			remoteContext = new BootstrapSocketConnector(
-				new OOoServer(officeInstallPath, oooOptions)).connect();
-		} catch (Throwable e) {
-			throw new MduException(e, "Exception obtaining office context");
-		}
+		OfficeTransport.OfficeConnection connection = OfficeTransport
+			.fromProperty(getNwSyncProps().getProperty("office.transport"))
+			.connectWithFallback(officeInstallPath);
+		XComponentContext remoteContext = connection.remoteContext();
 		if (remoteContext == null)
 			throw new MduException(null, "Unable to obtain office context");
 
 		XMultiComponentFactory remoteServiceMgr = remoteContext.getServiceManager();
 		if (remoteServiceMgr == null)
 			throw new MduException(null, "Unable to obtain office service manager");
+		this.connectDescription = connection.connectDescription();
 
 		XDesktop2 libreOfficeDesktop;
 		try {
@@ -620,7 +1552,9 @@ public class OdsAccessor implements StagedInterface, AutoCloseable {
 	 */
 	public void close() {
 		closeOfficeConnection();
+		this.sheetDoc = null;
 		this.calcDoc = null;
+		this.grid = null;
 
 	} // end close()
 
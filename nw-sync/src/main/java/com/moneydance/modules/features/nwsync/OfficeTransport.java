@@ -0,0 +1,99 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MduException;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.uno.XComponentContext;
+
+import ooo.connector.BootstrapPipeConnector;
+import ooo.connector.BootstrapSocketConnector;
+import ooo.connector.server.OOoServer;
+
+/**
+ * Connections we can make to the office process. A named pipe keeps each
+ * remote call off the TCP loopback stack; a socket works everywhere.
+ */
+public enum OfficeTransport {
+	PIPE, SOCKET;
+
+	private static final String SOCKET_HOST = "localhost";
+	private static final int SOCKET_PORT = 8100;
+	/** One pipe name for this process, so reconnecting finds the same office */
+	private static final String PIPE_NAME = "nwsync" + ProcessHandle.current().pid();
+
+	/**
+	 * A connection to the office process.
+	 *
+	 * @param remoteContext      The remote component context
+	 * @param connectDescription How the connection was made, such as
+	 *                           socket,host=localhost,port=8100, to make more like it
+	 */
+	public record OfficeConnection(XComponentContext remoteContext, String connectDescription) {
+	} // end record OfficeConnection
+
+	/**
+	 * @param value Property value naming a transport, case-insensitive
+	 * @return The named transport, SOCKET when value is empty or unknown
+	 */
+	public static OfficeTransport fromProperty(String value) {
+		if (value != null) {
+			for (OfficeTransport transport : values()) {
+				if (transport.name().equalsIgnoreCase(value.trim()))
+					return transport;
+			}
+		}
+
+		return SOCKET;
+	} // end fromProperty(String)
+
+	/**
+	 * Connect to the office process using this transport only, starting the
+	 * office process when needed.
+	 *
+	 * @param officeInstallPath Location of the installed office files
+	 * @return The connection made
+	 */
+	public OfficeConnection connect(String officeInstallPath) throws Exception {
+		List<String> oooOptions = Arrays.asList(Bootstrap.getDefaultOptions());
+		OOoServer server = new OOoServer(officeInstallPath, oooOptions);
+
+		return switch (this) {
+			case PIPE -> new OfficeConnection(new BootstrapPipeConnector(server).connect(PIPE_NAME),
+				"pipe,name=" + PIPE_NAME);
+			case SOCKET -> new OfficeConnection(new BootstrapSocketConnector(server)
+				.connect(SOCKET_HOST, SOCKET_PORT),
+				"socket,host=%s,port=%d".formatted(SOCKET_HOST, SOCKET_PORT));
+		};
+	} // end connect(String)
+
+	/**
+	 * Connect to the office process using this transport, falling back to a
+	 * socket when this transport fails.
+	 *
+	 * @param officeInstallPath Location of the installed office files
+	 * @return The connection made
+	 */
+	public OfficeConnection connectWithFallback(String officeInstallPath) throws MduException {
+		if (this != SOCKET) {
+			try {
+				OfficeConnection connection = connect(officeInstallPath);
+
+				if (connection.remoteContext() != null)
+					return connection;
+			} catch (Throwable e) {
+				MdLog.all("Problem connecting to office process by %s; falling back to socket"
+					.formatted(name().toLowerCase()), e);
+			}
+		}
+		try {
+
+			return SOCKET.connect(officeInstallPath);
+		} catch (Throwable e) {
+			throw new MduException(e, "Exception obtaining office context");
+		}
+	} // end connectWithFallback(String)
+
+} // end enum OfficeTransport
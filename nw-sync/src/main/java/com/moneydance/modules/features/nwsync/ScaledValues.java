@@ -0,0 +1,237 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-length sequence of decimal values held as unscaled longs and scales.
+ * Comparing a spreadsheet double with one of these values allocates nothing
+ * when they are equal at 13 digit precision.
+ */
+public final class ScaledValues {
+	private final long[] unscaled;
+	private final int[] scales;
+	private BigDecimal[] oversized = null;
+	private boolean[] missing = null;
+
+	/** Number of significant digits spreadsheet values are rounded to */
+	private static final int PRECISION = 13;
+	private static final long MIN_UNSCALED = 1_000_000_000_000L;
+	private static final long MAX_UNSCALED = 10 * MIN_UNSCALED;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	/** Smallest distance from a rounding boundary at which rounding is trusted */
+	private static final double BOUNDARY_FLOOR = 1e-6;
+
+	/**
+	 * Sole constructor. All values start as zero.
+	 *
+	 * @param length Number of values
+	 */
+	public ScaledValues(int length) {
+		this.unscaled = new long[length];
+		this.scales = new int[length];
+
+	} // end constructor
+
+	/**
+	 * @param values The values to hold
+	 * @return New instance holding values
+	 */
+	public static ScaledValues of(BigDecimal... values) {
+		ScaledValues scaledValues = new ScaledValues(values.length);
+
+		for (int i = 0; i < values.length; ++i) {
+			scaledValues.set(i, values[i]);
+		}
+
+		return scaledValues;
+	} // end of(BigDecimal...)
+
+	/**
+	 * @return The number of values
+	 */
+	public int length() {
+
+		return this.unscaled.length;
+	} // end length()
+
+	/**
+	 * @param index Index of the value to set
+	 * @param value Unscaled value
+	 * @param scale Number of digits to the right of the decimal point
+	 */
+	public void set(int index, long value, int scale) {
+		while (value != 0 && value % 10 == 0) {
+			value /= 10;
+			--scale;
+		}
+		this.unscaled[index] = value;
+		this.scales[index] = value == 0 ? 0 : scale;
+
+	} // end set(int, long, int)
+
+	/**
+	 * @param index Index of the value to set
+	 * @param value The value
+	 */
+	public void set(int index, BigDecimal value) {
+		BigDecimal stripped = value.stripTrailingZeros();
+
+		if (stripped.precision() <= 18) {
+			set(index, stripped.unscaledValue().longValueExact(), stripped.scale());
+		} else {
+			if (this.oversized == null) {
+				this.oversized = new BigDecimal[length()];
+			}
+			this.oversized[index] = value;
+		}
+
+	} // end set(int, BigDecimal)
+
+	/**
+	 * Copy a value from another instance.
+	 *
+	 * @param index  Index of the value to set
+	 * @param source Instance to copy from
+	 * @param from   Index of the value in source
+	 */
+	public void set(int index, ScaledValues source, int from) {
+		if (source.oversized != null && source.oversized[from] != null) {
+			set(index, source.oversized[from]);
+		} else {
+			this.unscaled[index] = source.unscaled[from];
+			this.scales[index] = source.scales[from];
+		}
+
+		if (source.isMissing(from)) {
+			setMissing(index);
+		}
+
+	} // end set(int, ScaledValues, int)
+
+	/**
+	 * Mark a value as unknown, such as a market value before any price.
+	 *
+	 * @param index Index of the value
+	 */
+	public void setMissing(int index) {
+		if (this.missing == null) {
+			this.missing = new boolean[length()];
+		}
+		this.missing[index] = true;
+
+	} // end setMissing(int)
+
+	/**
+	 * @param index Index of the value
+	 * @return True when the value at index is unknown
+	 */
+	public boolean isMissing(int index) {
+
+		return this.missing != null && this.missing[index];
+	} // end isMissing(int)
+
+	/**
+	 * @param index Index of the value
+	 * @return True when the value at index needs more than 18 digits
+	 */
+	public boolean isOversized(int index) {
+
+		return this.oversized != null && this.oversized[index] != null;
+	} // end isOversized(int)
+
+	/**
+	 * @param index Index of the value, which must not be oversized
+	 * @return Unscaled value at index, without trailing zeros
+	 */
+	public long unscaledAt(int index) {
+
+		return this.unscaled[index];
+	} // end unscaledAt(int)
+
+	/**
+	 * @param index Index of the value, which must not be oversized
+	 * @return Scale of the value at index
+	 */
+	public int scaleAt(int index) {
+
+		return this.scales[index];
+	} // end scaleAt(int)
+
+	/**
+	 * @param index Index of the value to get
+	 * @return The value at index as a BigDecimal
+	 */
+	public BigDecimal get(int index) {
+		if (this.oversized != null && this.oversized[index] != null)
+			return this.oversized[index];
+
+		return BigDecimal.valueOf(this.unscaled[index], this.scales[index]);
+	} // end get(int)
+
+	/**
+	 * Check, without allocating, whether a double rounded to 13 significant
+	 * digits equals one of our values. A false result is not conclusive when
+	 * the double is too close to a rounding boundary to decide, or when the
+	 * value is beyond the range handled here; callers confirm differences
+	 * with BigDecimal arithmetic.
+	 *
+	 * @param index Index of the value to compare with
+	 * @param other The double to round and compare
+	 * @return True when other is known to round to our value at index
+	 */
+	public boolean equalsRounded(int index, double other) {
+		if (this.oversized != null && this.oversized[index] != null)
+			return false;
+
+		long value = this.unscaled[index];
+
+		if (other == 0)
+			return value == 0;
+
+		if (!Double.isFinite(other))
+			return false;
+
+		int scale = PRECISION - 1 - (int) Math.floor(Math.log10(Math.abs(other)));
+		long rounded = roundAtScale(other, scale);
+
+		// correct any misjudged magnitude from log10
+		if (Math.abs(rounded) >= MAX_UNSCALED) {
+			rounded = roundAtScale(other, --scale);
+		} else if (rounded != Long.MIN_VALUE && Math.abs(rounded) < MIN_UNSCALED) {
+			rounded = roundAtScale(other, ++scale);
+		}
+
+		if (rounded == Long.MIN_VALUE)
+			return false;
+
+		while (rounded % 10 == 0) {
+			rounded /= 10;
+			--scale;
+		}
+
+		return rounded == value && scale == this.scales[index];
+	} // end equalsRounded(int, double)
+
+	/**
+	 * @param other The double to round
+	 * @param scale Number of digits to keep to the right of the decimal point
+	 * @return other rounded to an unscaled long at scale, or Long.MIN_VALUE when
+	 * the result is out of range or too close to a rounding boundary to decide
+	 */
+	private static long roundAtScale(double other, int scale) {
+		if (scale < 0 || scale >= POWERS_OF_TEN.length)
+			return Long.MIN_VALUE;
+
+		double scaled = other * POWERS_OF_TEN[scale];
+		double nearest = Math.rint(scaled);
+
+		// scaled carries a few ulps of error, which near 1e13 exceeds any fixed tolerance
+		if (Math.abs(Math.abs(scaled - nearest) - 0.5) < BOUNDARY_FLOOR + 4 * Math.ulp(scaled))
+			return Long.MIN_VALUE;
+
+		return (long) nearest;
+	} // end roundAtScale(double, int)
+
+} // end class ScaledValues
@@ -0,0 +1,260 @@
+package com.moneydance.modules.features.nwsync;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MduException;
+
+import com.moneydance.modules.features.nwsync.CellHandler.DateCellHandler;
+import com.moneydance.modules.features.nwsync.CellHandler.FloatCellHandler;
+import com.moneydance.modules.features.nwsync.SheetGrid.GridRow;
+
+/**
+ * Attributes and staged changes common to each kind of spreadsheet document
+ * we can synchronize.
+ */
+public abstract class SheetDoc {
+	private final String urlString;
+	private final LocalDate zeroDate;
+
+	private final List<CellHandler> changes = new ArrayList<>();
+
+	/** Changes written between cancellation checks and progress reports */
+	private static final int COMMIT_BATCH_SIZE = 64;
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param urlString The URL of the spreadsheet document
+	 * @param zeroDate  The date represented by a date value of zero
+	 */
+	protected SheetDoc(String urlString, LocalDate zeroDate) {
+		this.urlString = urlString;
+		this.zeroDate = zeroDate;
+
+	} // end (String, LocalDate) constructor
+
+	/**
+	 * Obtain a cheap indicator of the document's saved state. It changes
+	 * whenever the document is saved again.
+	 *
+	 * @return Change indicator, or null when the document has unsaved changes
+	 */
+	public abstract String getChangeToken();
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @param value  The value to save in the cell at the supplied position in the first sheet
+	 */
+	public abstract void setCellValue(int column, int row, double value);
+
+	/**
+	 * Read the value now in each of the supplied cells in one bulk read.
+	 *
+	 * @param cells The cells to read
+	 * @return The numeric value of each cell, NaN for cells no longer numeric
+	 */
+	protected abstract double[] readCurrentValues(List<CellHandler> cells) throws MduException;
+
+	/**
+	 * Read the number of decimal places the numeric cells of each column
+	 * display in the supplied rows.
+	 *
+	 * @param firstColumn Zero-based sheet column index of the first column
+	 * @param lastColumn  Zero-based sheet column index of the last column
+	 * @param sheetRows   Zero-based sheet row indexes of the rows of interest, ascending
+	 * @return Decimal places displayed in each column, -1 where unknown, or
+	 * null when this document offers no number format metadata
+	 */
+	public int[] readDisplayDecimals(int firstColumn, int lastColumn, int[] sheetRows)
+			throws MduException {
+
+		return null;
+	} // end readDisplayDecimals(int, int, int[])
+
+	/**
+	 * @param dateNum Date value in spreadsheet cell
+	 * @return LocalDate instance corresponding to dateNum
+	 */
+	public LocalDate getLocalDate(double dateNum) {
+
+		return this.zeroDate.plusDays((long) dateNum);
+	} // end getLocalDate(double)
+
+	/**
+	 * @param localDate Date the cell should represent
+	 * @return Date number value for the spreadsheet cell
+	 */
+	public long getDateNumber(LocalDate localDate) {
+
+		return this.zeroDate.until(localDate, DAYS);
+	} // end getDateNumber(LocalDate)
+
+	/**
+	 * Add a cell handler to our list of changes.
+	 *
+	 * @param cHandler The cell handler to add
+	 */
+	public void addChange(CellHandler cHandler) {
+		if (cHandler != null) {
+			this.changes.add(cHandler);
+		}
+
+	} // end addChange(CellHandler)
+
+	/**
+	 * Add cell handlers to our list of changes.
+	 *
+	 * @param cHandlers The cell handlers to add, in order
+	 */
+	public void addChanges(List<CellHandler> cHandlers) {
+		this.changes.addAll(cHandlers);
+
+	} // end addChanges(List<CellHandler>)
+
+	/**
+	 * Stage changes again, ahead of any still staged, after applying them
+	 * failed to reach the document.
+	 *
+	 * @param cHandlers The cell handlers to stage again, in order
+	 */
+	protected void restageChanges(List<CellHandler> cHandlers) {
+		this.changes.addAll(0, cHandlers);
+
+	} // end restageChanges(List<CellHandler>)
+
+	/**
+	 * Commit any changes to the spreadsheet document, a batch at a time.
+	 * Changes to cells edited since they were read are dropped rather than
+	 * applied. Changes not yet written when cancelled stay staged.
+	 *
+	 * @param monitor Where to report progress and check for cancellation
+	 * @return The dropped changes, whose cells were edited since they were read
+	 */
+	public List<CellHandler> commitChanges(WorkMonitor monitor) {
+		List<CellHandler> conflicts = findConflicts();
+		Set<CellHandler> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+		dropped.addAll(conflicts);
+		this.changes.removeIf(dropped::contains);
+		int total = this.changes.size();
+
+		for (int done = 0; !this.changes.isEmpty(); ) {
+			monitor.checkCancelled();
+			List<CellHandler> batch =
+				this.changes.subList(0, Math.min(COMMIT_BATCH_SIZE, this.changes.size()));
+			applyUpdates(batch);
+			done += batch.size();
+			batch.clear();
+			monitor.reportProgress(done, total);
+		} // end for
+
+		return conflicts;
+	} // end commitChanges(WorkMonitor)
+
+	/**
+	 * Write the new values of a batch of staged cells to the document.
+	 *
+	 * @param batch The cells to write, in staged order
+	 */
+	protected void applyUpdates(List<CellHandler> batch) {
+		batch.forEach(CellHandler::applyUpdate);
+
+	} // end applyUpdates(List<CellHandler>)
+
+	/**
+	 * Verify every staged cell still holds the value read before its change
+	 * was staged, using one bulk read.
+	 *
+	 * @return The staged changes whose cells were edited since they were read
+	 */
+	private List<CellHandler> findConflicts() {
+		if (this.changes.isEmpty())
+			return List.of();
+
+		double[] currentValues;
+		try {
+			currentValues = readCurrentValues(this.changes);
+		} catch (MduException e) {
+			MdLog.all("Problem verifying staged cells in %s; committing without checking"
+				.formatted(this.urlString), e);
+
+			return List.of();
+		}
+		List<CellHandler> conflicts = new ArrayList<>();
+
+		for (int i = 0; i < currentValues.length; ++i) {
+			if (!this.changes.get(i).isUnchanged(currentValues[i])) {
+				conflicts.add(this.changes.get(i));
+			}
+		} // end for
+
+		return conflicts;
+	} // end findConflicts()
+
+	/**
+	 * Clear out any pending changes.
+	 */
+	public void forgetChanges() {
+		this.changes.clear();
+
+	} // end forgetChanges()
+
+	/**
+	 * @return The changes still staged, in the order they will be applied
+	 */
+	public List<CellHandler> getChanges() {
+
+		return Collections.unmodifiableList(this.changes);
+	} // end getChanges()
+
+	/**
+	 * @return True when the spreadsheet has uncommitted changes in memory
+	 */
+	public boolean isModified() {
+
+		return !this.changes.isEmpty();
+	} // end isModified()
+
+	/**
+	 * @return The URL of the spreadsheet document
+	 */
+	public final String getUrlString() {
+
+		return this.urlString;
+	} // end getUrlString()
+
+	/**
+	 * @param grid  The grid containing row
+	 * @param row   The grid row to use
+	 * @param index Zero-based index relative to the key column
+	 * @return CellHandler instance for the cell at index in the supplied row, null when not numeric
+	 */
+	public CellHandler getCellHandler(SheetGrid grid, GridRow row, int index) {
+		int column = grid.getKeyColumn() + index;
+		double value = row.values()[index];
+
+		return switch (row.kinds()[index]) {
+			case SheetGrid.DATE -> new DateCellHandler(this, column, row.sheetRow(), value);
+			case SheetGrid.FLOAT -> new FloatCellHandler(this, column, row.sheetRow(), value, false);
+			case SheetGrid.CURRENCY -> new FloatCellHandler(this, column, row.sheetRow(), value, true);
+			default -> null;
+		};
+	} // end getCellHandler(SheetGrid, GridRow, int)
+
+	/**
+	 * @return A string representation of this document
+	 */
+	public String toString() {
+
+		return this.urlString;
+	} // end toString()
+
+} // end class SheetDoc
@@ -0,0 +1,91 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.List;
+
+/**
+ * In-memory copy of the parts of a spreadsheet's first sheet that a sync
+ * uses: the date row and each row with a key and a numeric latest date cell.
+ * Column indexes are relative to the key column. The keys of rows that match
+ * nothing in Moneydance are remembered, so a cached grid can tell when they
+ * start to match.
+ */
+public class SheetGrid {
+	/** Cell kinds recorded for each column */
+	public static final byte NOT_NUMERIC = 0;
+	public static final byte FLOAT = 1;
+	public static final byte CURRENCY = 2;
+	public static final byte DATE = 3;
+
+	/**
+	 * One row of the grid.
+	 *
+	 * @param sheetRow Zero-based sheet row index
+	 * @param key      Text displayed in the key column
+	 * @param kinds    Kind of cell in each column
+	 * @param values   Numeric value of each column, zero when not numeric
+	 */
+	public record GridRow(int sheetRow, String key, byte[] kinds, double[] values) {
+	} // end record GridRow
+
+	private final int keyColumn;
+	private final GridRow dateRow;
+	private final List<GridRow> rows;
+	private final List<String> ignoredKeys;
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param keyColumn   Zero-based sheet column index of the key column
+	 * @param dateRow     The row with 'Date' in the key column; dates fill columns 1 through the latest column
+	 * @param rows        The rows following the date row with a key and a numeric latest date cell
+	 * @param ignoredKeys The keys following the date row that match nothing in Moneydance
+	 */
+	public SheetGrid(int keyColumn, GridRow dateRow, List<GridRow> rows, List<String> ignoredKeys) {
+		this.keyColumn = keyColumn;
+		this.dateRow = dateRow;
+		this.rows = List.copyOf(rows);
+		this.ignoredKeys = List.copyOf(ignoredKeys);
+
+	} // end constructor
+
+	/**
+	 * @return Zero-based sheet column index of the key column
+	 */
+	public int getKeyColumn() {
+
+		return this.keyColumn;
+	} // end getKeyColumn()
+
+	/**
+	 * @return The row with 'Date' in the key column
+	 */
+	public GridRow getDateRow() {
+
+		return this.dateRow;
+	} // end getDateRow()
+
+	/**
+	 * @return Index of the rightmost date in the date row
+	 */
+	public int getLatestColumn() {
+
+		return this.dateRow.kinds().length - 1;
+	} // end getLatestColumn()
+
+	/**
+	 * @return The rows following the date row
+	 */
+	public List<GridRow> getRows() {
+
+		return this.rows;
+	} // end getRows()
+
+	/**
+	 * @return The keys following the date row that matched nothing in Moneydance when read
+	 */
+	public List<String> getIgnoredKeys() {
+
+		return this.ignoredKeys;
+	} // end getIgnoredKeys()
+
+} // end class SheetGrid
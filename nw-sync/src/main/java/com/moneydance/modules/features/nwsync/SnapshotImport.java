@@ -0,0 +1,95 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.infinitekind.moneydance.model.CurrencyType;
+
+/**
+ * Security prices read from the spreadsheet that Moneydance lacks or holds
+ * differently on the same date, staged for import. Committing applies them
+ * all, a security at a time in date order.
+ */
+public class SnapshotImport {
+	private final List<PriceChange> changes = new ArrayList<>();
+
+	/**
+	 * One price to import.
+	 *
+	 * @param security The Moneydance security
+	 * @param date     The price date, in decimal form YYYYMMDD
+	 * @param oldPrice The Moneydance price dated exactly date, or null when there is none
+	 * @param newPrice The spreadsheet price
+	 */
+	public record PriceChange(CurrencyType security, int date, BigDecimal oldPrice,
+		BigDecimal newPrice) {
+	} // end record PriceChange
+
+	/**
+	 * @param change The price to stage
+	 */
+	public void add(PriceChange change) {
+		this.changes.add(change);
+
+	} // end add(PriceChange)
+
+	/**
+	 * @return Number of prices staged
+	 */
+	public int size() {
+
+		return this.changes.size();
+	} // end size()
+
+	/**
+	 * @return True when no prices are staged
+	 */
+	public boolean isEmpty() {
+
+		return this.changes.isEmpty();
+	} // end isEmpty()
+
+	/**
+	 * Discard the staged prices.
+	 */
+	public void clear() {
+		this.changes.clear();
+
+	} // end clear()
+
+	/**
+	 * Create or update a snapshot for each staged price, a security at a time
+	 * in date order. Moneydance offers no way to suspend its own change
+	 * notifications, and each snapshot is saved on its own, so Moneydance's
+	 * listeners still hear of every snapshot. Only our history store reacts
+	 * once to them all, instead of to each snapshot.
+	 *
+	 * @param historyStore Stored history of the Moneydance account book to update
+	 * @param monitor      Where to report progress; the import is not cancelled once started
+	 * @return Summary of the prices imported
+	 */
+	public String apply(HistoryStore historyStore, WorkMonitor monitor) {
+		monitor.checkCancelled();
+		List<PriceChange> ordered = new ArrayList<>(this.changes);
+		ordered.sort(Comparator.comparing((PriceChange change) -> change.security().getUUID())
+			.thenComparingInt(PriceChange::date));
+
+		historyStore.updatePrices(() -> {
+			for (int i = 0; i < ordered.size(); ++i) {
+				PriceChange change = ordered.get(i);
+				// Moneydance keeps the rate, the inverse of the price
+				change.security().setSnapshotInt(change.date(), 1 / change.newPrice().doubleValue())
+					.syncItem();
+				monitor.reportProgress(i + 1, ordered.size());
+			} // end for
+		});
+		int numImported = ordered.size();
+		clear();
+
+		return "Imported %d security price%s into Moneydance"
+			.formatted(numImported, numImported == 1 ? "" : "s");
+	} // end apply(HistoryStore, WorkMonitor)
+
+} // end class SnapshotImport
@@ -0,0 +1,100 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MduException;
+import com.leastlogic.moneydance.util.StagedInterface;
+
+/**
+ * Synchronizes Moneydance with a spreadsheet document. Only this interface
+ * is linked into the rest of the extension; its office implementation, and
+ * the LibreOffice classes it uses, are loaded through a holder class on first
+ * sync.
+ */
+public interface SyncAccessor extends StagedInterface, AutoCloseable {
+
+	/**
+	 * Synchronize data between a spreadsheet document and Moneydance.
+	 */
+	void syncNwData() throws MduException;
+
+	/**
+	 * Commit any changes to the spreadsheet document.
+	 *
+	 * @return Optional summary of the changes committed
+	 */
+	Optional<String> commitChanges();
+
+	/**
+	 * Commit any changes to the spreadsheet document.
+	 *
+	 * @param monitor Where to report progress and check for cancellation
+	 * @return Optional summary of the changes committed
+	 */
+	Optional<String> commitChanges(WorkMonitor monitor);
+
+	/**
+	 * Release any resources we acquired.
+	 */
+	void close();
+
+	/**
+	 * Load our office implementation, logging how long loading its classes took.
+	 * Runs on worker thread.
+	 *
+	 * @param syncWorker   The worker we can use to send messages to the event dispatch thread
+	 * @param locale       Our message window's Locale
+	 * @param historyStore Stored history of the Moneydance account book to use
+	 * @param computePool  Pool for the parallel stages of a sync
+	 * @return A new accessor
+	 */
+	static SyncAccessor load(NwSyncWorker syncWorker, Locale locale, HistoryStore historyStore,
+			ForkJoinPool computePool) throws MduException {
+		ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+		long loadedBefore = classLoading.getTotalLoadedClassCount();
+		long startTime = System.nanoTime();
+
+		try {
+			SyncAccessor accessor = OfficeAccessorHolder.create(syncWorker, locale, historyStore,
+				computePool);
+			MdLog.debug("First sync loaded %d classes in %.1f ms, %d classes were loaded before it"
+				.formatted(classLoading.getTotalLoadedClassCount() - loadedBefore,
+					(System.nanoTime() - startTime) / 1e6, loadedBefore));
+
+			return accessor;
+		} catch (LinkageError e) {
+			throw new MduException(e, "Unable to load the office accessor");
+		}
+	} // end load(NwSyncWorker, Locale, HistoryStore, ForkJoinPool)
+
+	/**
+	 * Holder whose only reference to the office implementation sits in a
+	 * method body, so that implementation is loaded when create first runs
+	 * rather than when this interface is linked.
+	 */
+	final class OfficeAccessorHolder {
+
+		private OfficeAccessorHolder() {
+		}
+
+		/**
+		 * @param syncWorker   The worker we can use to send messages to the event dispatch thread
+		 * @param locale       Our message window's Locale
+		 * @param historyStore Stored history of the Moneydance account book to use
+		 * @param computePool  Pool for the parallel stages of a sync
+		 * @return A new office accessor
+		 */
+		static SyncAccessor create(NwSyncWorker syncWorker, Locale locale,
+				HistoryStore historyStore, ForkJoinPool computePool) {
+
+			return new OdsAccessor(syncWorker, locale, historyStore, computePool);
+		} // end create(NwSyncWorker, Locale, HistoryStore, ForkJoinPool)
+
+	} // end class OfficeAccessorHolder
+
+} // end interface SyncAccessor
@@ -0,0 +1,117 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Optional;
+
+/**
+ * Typed events published while synchronizing Moneydance with a spreadsheet.
+ * Our console shows the display text of each event as it is published.
+ * Audit or metrics consumers can subscribe to the events of every sync
+ * through {@link Main#addEventSubscriber}. A subscriber that falls behind
+ * has events dropped, and receives an {@link EventsLost} event reporting how
+ * many before its next event, or before completion.
+ */
+public sealed interface SyncEvent {
+
+	/**
+	 * @return Text to show in our console, if any
+	 */
+	default Optional<String> displayText() {
+
+		return Optional.empty();
+	} // end displayText()
+
+	/** Kinds of spreadsheet value a sync can change; a holding is a security account's market value */
+	enum ValueKind { PRICE, BALANCE, HOLDING, DATE }
+
+	/**
+	 * A message for the user.
+	 *
+	 * @param text HTML message text
+	 */
+	record Message(String text) implements SyncEvent {
+
+		public Optional<String> displayText() {
+
+			return Optional.of(this.text);
+		} // end displayText()
+
+	} // end record Message
+
+	/**
+	 * A spreadsheet row matched a Moneydance security or account.
+	 *
+	 * @param sheetRow   Zero-based sheet row index
+	 * @param key        The spreadsheet name of the row
+	 * @param isSecurity True for a security row, false for an account row
+	 */
+	record RowMatched(int sheetRow, String key, boolean isSecurity) implements SyncEvent {
+	} // end record RowMatched
+
+	/**
+	 * A spreadsheet price or balance differs from Moneydance.
+	 *
+	 * @param key      The spreadsheet name of the row
+	 * @param dayStr   The applicable day
+	 * @param kind     Price, balance or holding
+	 * @param oldValue The spreadsheet value
+	 * @param newValue The Moneydance value
+	 * @param text     HTML description of the change
+	 */
+	record ValueChanged(String key, String dayStr, ValueKind kind, BigDecimal oldValue,
+		BigDecimal newValue, String text) implements SyncEvent {
+
+		public Optional<String> displayText() {
+
+			return Optional.of(this.text);
+		} // end displayText()
+
+	} // end record ValueChanged
+
+	/**
+	 * The rightmost spreadsheet date differs from the latest security price date.
+	 *
+	 * @param oldDate The spreadsheet date
+	 * @param newDate The new date
+	 * @param text    HTML description of the change
+	 */
+	record DateChanged(LocalDate oldDate, LocalDate newDate, String text) implements SyncEvent {
+
+		public Optional<String> displayText() {
+
+			return Optional.of(this.text);
+		} // end displayText()
+
+	} // end record DateChanged
+
+	/**
+	 * One phase of a sync finished.
+	 *
+	 * @param phase   Name of the phase
+	 * @param elapsed How long the phase took
+	 */
+	record PhaseTiming(String phase, Duration elapsed) implements SyncEvent {
+	} // end record PhaseTiming
+
+	/**
+	 * A sync finished. No more events follow, other than an EventsLost event
+	 * when events were dropped after the last one this subscriber received.
+	 *
+	 * @param isModified True when changes were staged
+	 */
+	record Completed(boolean isModified) implements SyncEvent {
+	} // end record Completed
+
+	/**
+	 * Events this subscriber missed, dropped since it fell behind. Sent only
+	 * to the affected subscriber, so its stream shows where it has gaps. It
+	 * is delivered in addition to the events the subscriber requested.
+	 *
+	 * @param numLost Number of events dropped since this subscriber's prior event
+	 */
+	record EventsLost(int numLost) implements SyncEvent {
+	} // end record EventsLost
+
+} // end interface SyncEvent
@@ -0,0 +1,204 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingWorker;
+
+import com.leastlogic.moneydance.util.MdLog;
+
+/**
+ * Threads owned by this extension: one named thread that runs sync and
+ * commit workers in turn, a fork/join pool with configurable parallelism for the
+ * compute stages of a sync, and a few threads that deliver sync events to
+ * subscribers. Using our own threads keeps our sync from starving, or being
+ * starved by, other extensions using shared pools, and keeps a slow
+ * subscriber off the compute threads.
+ */
+public class SyncExecutor {
+	private final ThreadPoolExecutor workerExecutor;
+	private final ForkJoinPool computePool;
+	private final ThreadPoolExecutor eventExecutor;
+
+	/** Longest we wait for running work to finish when shutting down */
+	private static final long TERMINATION_SECONDS = 30;
+
+	/** Threads delivering sync events to subscribers */
+	private static final int EVENT_THREADS = 2;
+
+	/** How long an idle event delivery thread lingers */
+	private static final long EVENT_THREAD_IDLE_SECONDS = 60;
+
+	/**
+	 * Point-in-time executor metrics.
+	 *
+	 * @param queuedSyncs          Sync workers waiting to run
+	 * @param activeSyncs          Sync workers running
+	 * @param queuedComputeTasks   Compute tasks waiting in the fork/join pool
+	 * @param activeComputeThreads Fork/join threads running tasks
+	 * @param computeParallelism   Target parallelism of the fork/join pool
+	 */
+	public record Metrics(int queuedSyncs, int activeSyncs, long queuedComputeTasks,
+		int activeComputeThreads, int computeParallelism) {
+	} // end record Metrics
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param parallelism    Parallelism of the compute pool
+	 * @param threadPriority Priority of our threads
+	 */
+	public SyncExecutor(int parallelism, int threadPriority) {
+		this.workerExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(), daemonThreads("nw-sync-worker", threadPriority));
+		this.computePool = new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread thread =
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("nw-sync-compute-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			thread.setPriority(threadPriority);
+
+			return thread;
+		}, null, true);
+		this.eventExecutor = new ThreadPoolExecutor(EVENT_THREADS, EVENT_THREADS,
+			EVENT_THREAD_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+			daemonThreads("nw-sync-events", threadPriority));
+		this.eventExecutor.allowCoreThreadTimeOut(true);
+
+	} // end constructor
+
+	/**
+	 * @param name     Name of the threads, numbered after the first
+	 * @param priority Priority of the threads
+	 * @return Factory of daemon threads with the supplied name and priority
+	 */
+	private static ThreadFactory daemonThreads(String name, int priority) {
+		AtomicInteger threadCount = new AtomicInteger();
+
+		return runnable -> {
+			int number = threadCount.getAndIncrement();
+			Thread thread = new Thread(runnable, number == 0 ? name : name + '-' + number);
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+
+			return thread;
+		};
+	} // end daemonThreads(String, int)
+
+	/**
+	 * @param props Our properties
+	 * @return New instance configured by props
+	 */
+	public static SyncExecutor fromProperties(Properties props) {
+		int parallelism = Integer.parseInt(
+			props.getProperty("executor.compute.parallelism", "0").trim());
+		int priority = Integer.parseInt(props.getProperty("executor.thread.priority",
+			Integer.toString(Thread.NORM_PRIORITY)).trim());
+
+		return new SyncExecutor(
+			parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+			Math.clamp(priority, Thread.MIN_PRIORITY, Thread.MAX_PRIORITY));
+	} // end fromProperties(Properties)
+
+	/**
+	 * Queue a sync or commit worker to run after any earlier ones.
+	 *
+	 * @param worker The worker to run
+	 */
+	public void execute(SwingWorker<?, ?> worker) {
+		this.workerExecutor.execute(worker);
+
+	} // end execute(SwingWorker<?, ?>)
+
+	/**
+	 * @return The pool for the compute stages of a sync
+	 */
+	public ForkJoinPool getComputePool() {
+
+		return this.computePool;
+	} // end getComputePool()
+
+	/**
+	 * @return The executor that delivers sync events to subscribers
+	 */
+	public ThreadPoolExecutor getEventExecutor() {
+
+		return this.eventExecutor;
+	} // end getEventExecutor()
+
+	/**
+	 * @return Current metrics of our threads
+	 */
+	public Metrics getMetrics() {
+
+		return new Metrics(this.workerExecutor.getQueue().size(),
+			this.workerExecutor.getActiveCount(),
+			this.computePool.getQueuedSubmissionCount() + this.computePool.getQueuedTaskCount(),
+			this.computePool.getActiveThreadCount(), this.computePool.getParallelism());
+	} // end getMetrics()
+
+	/**
+	 * @return True once shut down
+	 */
+	public boolean isShutdown() {
+
+		return this.workerExecutor.isShutdown();
+	} // end isShutdown()
+
+	/**
+	 * Stop accepting work. Tasks already queued still run. Waits for them on
+	 * a thread of its own, so it may be called from any thread, ours included.
+	 *
+	 * @return Future completed with true once all our threads have finished
+	 * their work, or false when some are still running after waiting for them
+	 */
+	public CompletableFuture<Boolean> shutdown() {
+		this.workerExecutor.shutdown();
+		this.computePool.shutdown();
+		this.eventExecutor.shutdown();
+
+		return CompletableFuture.supplyAsync(this::awaitTermination,
+			runnable -> Thread.ofPlatform().name("nw-sync-shutdown").daemon().start(runnable));
+	} // end shutdown()
+
+	/**
+	 * Wait for each of our pools to finish its work.
+	 *
+	 * @return True when every pool has terminated
+	 */
+	private boolean awaitTermination() {
+		boolean workersStopped = awaitTermination("worker", this.workerExecutor);
+		boolean computeStopped = awaitTermination("compute", this.computePool);
+		boolean eventsStopped = awaitTermination("event", this.eventExecutor);
+
+		return workersStopped && computeStopped && eventsStopped;
+	} // end awaitTermination()
+
+	/**
+	 * @param name Name of the pool, for logging
+	 * @param pool The pool to wait for
+	 * @return True when pool has terminated
+	 */
+	private static boolean awaitTermination(String name, ExecutorService pool) {
+		try {
+			if (pool.awaitTermination(TERMINATION_SECONDS, TimeUnit.SECONDS))
+				return true;
+
+			MdLog.all("Sync %s threads still running after %d seconds"
+				.formatted(name, TERMINATION_SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return pool.isTerminated();
+	} // end awaitTermination(String, ExecutorService)
+
+} // end class SyncExecutor
@@ -0,0 +1,86 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Number formats for reporting changed values, cached per thread and number
+ * of fraction digits so reporting a difference doesn't build a new format.
+ */
+public class ValueFormats {
+	private final Locale locale;
+	private final ThreadLocal<NumberFormat[]> currencyFormats;
+	private final ThreadLocal<NumberFormat[]> numberFormats;
+
+	private static final int MAX_FRACTION_DIGITS = 13;
+
+	/**
+	 * Sole constructor.
+	 *
+	 * @param locale The locale to format values for
+	 */
+	public ValueFormats(Locale locale) {
+		this.locale = locale;
+		this.currencyFormats = ThreadLocal.withInitial(() -> new NumberFormat[MAX_FRACTION_DIGITS + 1]);
+		this.numberFormats = ThreadLocal.withInitial(() -> new NumberFormat[MAX_FRACTION_DIGITS + 1]);
+
+	} // end constructor
+
+	/**
+	 * @param value1 First value to be formatted
+	 * @param value2 Second value to be formatted
+	 * @return Currency format showing all the fraction digits of both values
+	 */
+	public NumberFormat getCurrencyFormat(BigDecimal value1, BigDecimal value2) {
+		int digits = Math.max(2, fractionDigits(value1, value2));
+		NumberFormat[] formats = this.currencyFormats.get();
+
+		if (formats[digits] == null) {
+			formats[digits] = withFractionDigits(NumberFormat.getCurrencyInstance(this.locale), digits);
+		}
+
+		return formats[digits];
+	} // end getCurrencyFormat(BigDecimal, BigDecimal)
+
+	/**
+	 * @param value1 First value to be formatted
+	 * @param value2 Second value to be formatted
+	 * @return Number format showing all the fraction digits of both values
+	 */
+	public NumberFormat getNumberFormat(BigDecimal value1, BigDecimal value2) {
+		int digits = fractionDigits(value1, value2);
+		NumberFormat[] formats = this.numberFormats.get();
+
+		if (formats[digits] == null) {
+			formats[digits] = withFractionDigits(NumberFormat.getNumberInstance(this.locale), digits);
+		}
+
+		return formats[digits];
+	} // end getNumberFormat(BigDecimal, BigDecimal)
+
+	/**
+	 * @param value1 First value
+	 * @param value2 Second value
+	 * @return The number of fraction digits needed to show both values
+	 */
+	private static int fractionDigits(BigDecimal value1, BigDecimal value2) {
+		int digits = Math.max(value1.stripTrailingZeros().scale(),
+			value2.stripTrailingZeros().scale());
+
+		return Math.min(Math.max(digits, 0), MAX_FRACTION_DIGITS);
+	} // end fractionDigits(BigDecimal, BigDecimal)
+
+	/**
+	 * @param format The format to adjust
+	 * @param digits Number of fraction digits to show
+	 * @return format
+	 */
+	private static NumberFormat withFractionDigits(NumberFormat format, int digits) {
+		format.setMinimumFractionDigits(digits);
+		format.setMaximumFractionDigits(digits);
+
+		return format;
+	} // end withFractionDigits(NumberFormat, int)
+
+} // end class ValueFormats
@@ -0,0 +1,32 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets long-running work report progress and stop early when cancelled.
+ */
+public interface WorkMonitor {
+
+	/** Monitor for work that can neither be cancelled nor report progress */
+	WorkMonitor NONE = new WorkMonitor() {
+		public void checkCancelled() {
+		}
+
+		public void reportProgress(int done, int total) {
+		}
+	};
+
+	/**
+	 * Cooperative cancellation checkpoint.
+	 *
+	 * @throws CancellationException when the work has been cancelled
+	 */
+	void checkCancelled();
+
+	/**
+	 * @param done  Units of work done so far
+	 * @param total Total units of work
+	 */
+	void reportProgress(int done, int total);
+
+} // end interface WorkMonitor
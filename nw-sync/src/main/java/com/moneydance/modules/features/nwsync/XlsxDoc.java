@@ -0,0 +1,910 @@
+package com.moneydance.modules.features.nwsync;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.leastlogic.moneydance.util.MdLog;
+import com.leastlogic.moneydance.util.MduException;
+import com.moneydance.modules.features.nwsync.SheetGrid.GridRow;
+
+/**
+ * Provides streaming read/write access to the first sheet of an xlsx
+ * workbook without an office process. Only the cells needed for a sync are
+ * kept in memory, and only the first sheet's part is rewritten on commit.
+ */
+public class XlsxDoc extends SheetDoc {
+	private final Path workbookPath;
+	private final String sheetPart;
+	private final byte[] styleKinds;
+	private final Map<Long, Double> cellValues = new HashMap<>();
+
+	private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+	private static final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+	private static final String WORKBOOK_PART = "/xl/workbook.xml";
+	/** Workbook elements that follow calcPr in schema order */
+	private static final Set<String> AFTER_CALC_PR = Set.of("oleSize", "customWorkbookViews",
+		"pivotCaches", "smartTagPr", "smartTagTypes", "webPublishing", "fileRecoveryPr",
+		"webPublishObjects", "extLst");
+
+	/**
+	 * Cells of one sheet row, relative to the key column.
+	 */
+	private static final class RowCells {
+		private int sheetRow = -1;
+		private String key = null;
+		private byte[] kinds = new byte[16];
+		private double[] values = new double[16];
+		private int width = 0;
+
+		/**
+		 * @param sheetRow Zero-based sheet row index of the next row
+		 */
+		private void reset(int sheetRow) {
+			this.sheetRow = sheetRow;
+			this.key = null;
+			Arrays.fill(this.kinds, 0, this.width, SheetGrid.NOT_NUMERIC);
+			Arrays.fill(this.values, 0, this.width, 0);
+			this.width = 0;
+
+		} // end reset(int)
+
+		/**
+		 * @param index Index relative to the key column
+		 * @param kind  Kind of cell
+		 * @param value Numeric value of the cell
+		 */
+		private void put(int index, byte kind, double value) {
+			if (index >= this.kinds.length) {
+				int length = Math.max(index + 1, this.kinds.length * 2);
+				this.kinds = Arrays.copyOf(this.kinds, length);
+				this.values = Arrays.copyOf(this.values, length);
+			}
+			this.kinds[index] = kind;
+			this.values[index] = value;
+			this.width = Math.max(this.width, index + 1);
+
+		} // end put(int, byte, double)
+
+		/**
+		 * @param index Index relative to the key column
+		 * @return Kind of the cell at index
+		 */
+		private byte kindAt(int index) {
+
+			return index < this.width ? this.kinds[index] : SheetGrid.NOT_NUMERIC;
+		} // end kindAt(int)
+
+		/**
+		 * @param length Number of columns to include
+		 * @return Grid row holding the first length columns
+		 */
+		private GridRow toGridRow(int length) {
+			byte[] rowKinds = new byte[length];
+			double[] rowValues = new double[length];
+			System.arraycopy(this.kinds, 0, rowKinds, 0, Math.min(length, this.width));
+			System.arraycopy(this.values, 0, rowValues, 0, Math.min(length, this.width));
+
+			return new GridRow(this.sheetRow, this.key, rowKinds, rowValues);
+		} // end toGridRow(int)
+
+	} // end class RowCells
+
+	/**
+	 * @param workbookPath Location of the xlsx workbook
+	 * @param zeroDate     The date represented by a date value of zero
+	 * @param sheetPart    Zip entry of the first sheet
+	 * @param styleKinds   SheetGrid cell kind of each cell style
+	 */
+	private XlsxDoc(Path workbookPath, LocalDate zeroDate, String sheetPart, byte[] styleKinds) {
+		super(workbookPath.toUri().toString(), zeroDate);
+		this.workbookPath = workbookPath;
+		this.sheetPart = sheetPart;
+		this.styleKinds = styleKinds;
+
+	} // end constructor
+
+	/**
+	 * @param workbookPath Location of the xlsx workbook
+	 * @return New instance for the workbook
+	 */
+	public static XlsxDoc open(Path workbookPath) throws MduException {
+		try (FileSystem zip = FileSystems.newFileSystem(workbookPath)) {
+			boolean date1904 = false;
+			String firstSheetRelId = null;
+
+			try (InputStream in = Files.newInputStream(zip.getPath(WORKBOOK_PART))) {
+				XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+
+				while (reader.hasNext() && firstSheetRelId == null) {
+					if (reader.next() == START_ELEMENT) {
+						switch (reader.getLocalName()) {
+							case "workbookPr" -> {
+								String value = reader.getAttributeValue(null, "date1904");
+								date1904 = "1".equals(value) || "true".equals(value);
+							}
+							case "sheet" -> firstSheetRelId = reader.getAttributeValue(REL_NS, "id");
+							default -> { }
+						}
+					}
+				} // end while
+				reader.close();
+			} // end try-with-resources
+			if (firstSheetRelId == null)
+				throw new MduException(null, "Unable to find first sheet in %s", workbookPath);
+
+			return new XlsxDoc(workbookPath,
+				date1904 ? LocalDate.of(1904, 1, 1) : LocalDate.of(1899, 12, 30),
+				getSheetPart(zip, firstSheetRelId, workbookPath), getStyleKinds(zip));
+		} catch (IOException | XMLStreamException e) {
+			throw new MduException(e, "Exception opening %s", workbookPath);
+		}
+	} // end open(Path)
+
+	/**
+	 * @param zip          The workbook's zip file system
+	 * @param relId        Relationship ID of the sheet
+	 * @param workbookPath Location of the xlsx workbook
+	 * @return Zip entry of the sheet
+	 */
+	private static String getSheetPart(FileSystem zip, String relId, Path workbookPath)
+			throws IOException, XMLStreamException, MduException {
+		try (InputStream in = Files.newInputStream(zip.getPath("/xl/_rels/workbook.xml.rels"))) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+
+			while (reader.hasNext()) {
+				if (reader.next() == START_ELEMENT && "Relationship".equals(reader.getLocalName())
+						&& relId.equals(reader.getAttributeValue(null, "Id"))) {
+					String target = reader.getAttributeValue(null, "Target");
+					reader.close();
+
+					return target.startsWith("/") ? target : "/xl/" + target;
+				}
+			} // end while
+			reader.close();
+		} // end try-with-resources
+
+		throw new MduException(null, "Unable to find sheet relationship %s in %s", relId, workbookPath);
+	} // end getSheetPart(FileSystem, String, Path)
+
+	/**
+	 * @param zip The workbook's zip file system
+	 * @return SheetGrid cell kind of each cell style
+	 */
+	private static byte[] getStyleKinds(FileSystem zip) throws IOException, XMLStreamException {
+		Path stylesPath = zip.getPath("/xl/styles.xml");
+
+		if (!Files.exists(stylesPath))
+			return new byte[] { SheetGrid.FLOAT };
+
+		Map<Integer, Byte> customKinds = new HashMap<>();
+		List<Byte> kinds = new ArrayList<>();
+		boolean inCellXfs = false;
+
+		try (InputStream in = Files.newInputStream(stylesPath)) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == START_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case "numFmt" -> customKinds.put(
+							Integer.parseInt(reader.getAttributeValue(null, "numFmtId")),
+							getFormatCodeKind(reader.getAttributeValue(null, "formatCode")));
+						case "cellXfs" -> inCellXfs = true;
+						case "xf" -> {
+							if (inCellXfs) {
+								String fmtId = reader.getAttributeValue(null, "numFmtId");
+								int numFmtId = fmtId == null ? 0 : Integer.parseInt(fmtId);
+								kinds.add(customKinds.getOrDefault(numFmtId, getBuiltInKind(numFmtId)));
+							}
+						}
+						default -> { }
+					}
+				} else if (event == END_ELEMENT && "cellXfs".equals(reader.getLocalName())) {
+					inCellXfs = false;
+				}
+			} // end while
+			reader.close();
+		} // end try-with-resources
+		byte[] styleKinds = new byte[kinds.size()];
+
+		for (int i = 0; i < styleKinds.length; ++i) {
+			styleKinds[i] = kinds.get(i);
+		}
+
+		return styleKinds;
+	} // end getStyleKinds(FileSystem)
+
+	/**
+	 * @param numFmtId Built-in number format ID
+	 * @return SheetGrid cell kind for numbers with this format
+	 */
+	private static byte getBuiltInKind(int numFmtId) {
+
+		return switch (numFmtId) {
+			case 5, 6, 7, 8, 44 -> SheetGrid.CURRENCY;
+			case 9, 10 -> SheetGrid.NOT_NUMERIC; // percent
+			case 14, 15, 16, 17, 18, 19, 20, 21, 22, 45, 46, 47 -> SheetGrid.DATE;
+			default -> SheetGrid.FLOAT;
+		};
+	} // end getBuiltInKind(int)
+
+	/**
+	 * @param formatCode Custom number format code
+	 * @return SheetGrid cell kind for numbers with this format
+	 */
+	private static byte getFormatCodeKind(String formatCode) {
+		if (formatCode == null)
+			return SheetGrid.FLOAT;
+
+		// drop quoted literals and escaped characters
+		String code = formatCode.replaceAll("\"[^\"]*\"", "").replaceAll("\\\\.", "");
+
+		if (code.contains("%"))
+			return SheetGrid.NOT_NUMERIC;
+
+		// a currency symbol may be bare, quoted, escaped or in a [$symbol-locale] tag
+		if (formatCode.matches(
+				"(?s).*(\"[^\"]*[$¢£¥€¤][^\"]*\"|\\\\[$¢£¥€¤]|\\[\\$[^-\\]]+).*")
+				|| code.replaceAll("\\[[^]]*]", "").matches(".*[$¢£¥€¤].*"))
+			return SheetGrid.CURRENCY;
+
+		String unbracketed = code.replaceAll("\\[[^]]*]", "").toLowerCase();
+
+		return unbracketed.matches(".*[ydhs].*") || unbracketed.matches("[^0#?]*m[^0#?]*")
+			? SheetGrid.DATE
+			: SheetGrid.FLOAT;
+	} // end getFormatCodeKind(String)
+
+	/**
+	 * Read the grid of cells a sync uses from the first sheet: the row with
+	 * 'Date' in the key column and each following row with a key and a numeric
+	 * latest date cell. Formula cells are not numeric, matching the office backend.
+	 *
+	 * @param syncWorker The worker we can use to send messages and check for cancellation
+	 * @param isTarget   Tells whether a key matches something in Moneydance
+	 * @return The spreadsheet grid, or null when there is no date row
+	 */
+	public SheetGrid readSheetGrid(NwSyncWorker syncWorker, Predicate<String> isTarget)
+			throws MduException {
+		try (FileSystem zip = FileSystems.newFileSystem(this.workbookPath)) {
+			Path sheetPath = zip.getPath(this.sheetPart);
+			BitSet keyStringIds = new BitSet();
+			int keyColumn = scanKeyStrings(sheetPath, keyStringIds);
+			Map<Integer, String> sharedStrings = readSharedStrings(zip, keyStringIds);
+
+			return readGrid(sheetPath, keyColumn, sharedStrings, syncWorker, isTarget);
+		} catch (IOException | XMLStreamException e) {
+			throw new MduException(e, "Exception reading %s", this.workbookPath);
+		}
+	} // end readSheetGrid(NwSyncWorker, Predicate<String>)
+
+	/**
+	 * First pass over the sheet: find the key column and the shared strings it uses.
+	 *
+	 * @param sheetPath    The sheet part
+	 * @param keyStringIds Receives the index of each shared string in the key column
+	 * @return Zero-based sheet column index of the key column
+	 */
+	private static int scanKeyStrings(Path sheetPath, BitSet keyStringIds)
+			throws IOException, XMLStreamException {
+		int keyColumn = -1;
+
+		try (InputStream in = Files.newInputStream(sheetPath)) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+			int column = -1;
+			boolean isSharedKey = false;
+
+			while (reader.hasNext()) {
+				if (reader.next() != START_ELEMENT)
+					continue;
+
+				switch (reader.getLocalName()) {
+					case "dimension" -> keyColumn = getColumnIndex(reader.getAttributeValue(null, "ref"), 0);
+					case "row" -> column = -1;
+					case "c" -> {
+						column = getColumnIndex(reader.getAttributeValue(null, "r"), column + 1);
+
+						if (keyColumn < 0) {
+							keyColumn = column; // no dimension, so use the first cell
+						}
+						isSharedKey = column == keyColumn && "s".equals(reader.getAttributeValue(null, "t"));
+					}
+					case "v" -> {
+						if (isSharedKey) {
+							keyStringIds.set(Integer.parseInt(reader.getElementText().trim()));
+							isSharedKey = false;
+						}
+					}
+					default -> { }
+				}
+			} // end while
+			reader.close();
+		} // end try-with-resources
+
+		return Math.max(keyColumn, 0);
+	} // end scanKeyStrings(Path, BitSet)
+
+	/**
+	 * Second pass: read only the shared strings used in the key column.
+	 *
+	 * @param zip       The workbook's zip file system
+	 * @param stringIds Index of each shared string to keep
+	 * @return The text of each shared string kept, by index
+	 */
+	private static Map<Integer, String> readSharedStrings(FileSystem zip, BitSet stringIds)
+			throws IOException, XMLStreamException {
+		Map<Integer, String> sharedStrings = new HashMap<>();
+		Path stringsPath = zip.getPath("/xl/sharedStrings.xml");
+
+		if (stringIds.isEmpty() || !Files.exists(stringsPath))
+			return sharedStrings;
+
+		try (InputStream in = Files.newInputStream(stringsPath)) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+			int index = -1;
+
+			while (reader.hasNext() && index < stringIds.length()) {
+				if (reader.next() == START_ELEMENT && "si".equals(reader.getLocalName())
+						&& stringIds.get(++index)) {
+					sharedStrings.put(index, readText(reader, "si"));
+				}
+			} // end while
+			reader.close();
+		} // end try-with-resources
+
+		return sharedStrings;
+	} // end readSharedStrings(FileSystem, BitSet)
+
+	/**
+	 * Third pass: read the date row and each following row of interest.
+	 *
+	 * @param sheetPath     The sheet part
+	 * @param keyColumn     Zero-based sheet column index of the key column
+	 * @param sharedStrings The shared strings used in the key column
+	 * @param syncWorker    The worker we can use to send messages and check for cancellation
+	 * @param isTarget      Tells whether a key matches something in Moneydance
+	 * @return The spreadsheet grid, or null when there is no date row
+	 */
+	private SheetGrid readGrid(Path sheetPath, int keyColumn, Map<Integer, String> sharedStrings,
+			NwSyncWorker syncWorker, Predicate<String> isTarget) throws IOException, XMLStreamException {
+		GridRow dateRow = null;
+		List<GridRow> rows = new ArrayList<>();
+		List<String> ignoredKeys = new ArrayList<>();
+		RowCells cells = new RowCells();
+
+		try (InputStream in = Files.newInputStream(sheetPath)) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+			int column = -1;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == START_ELEMENT && "row".equals(reader.getLocalName())) {
+					String rowNum = reader.getAttributeValue(null, "r");
+					cells.reset(rowNum == null ? cells.sheetRow + 1 : Integer.parseInt(rowNum) - 1);
+					column = -1;
+				} else if (event == START_ELEMENT && "c".equals(reader.getLocalName())) {
+					column = getColumnIndex(reader.getAttributeValue(null, "r"), column + 1);
+
+					if (column >= keyColumn) {
+						readCell(reader, column - keyColumn, cells, sharedStrings);
+					}
+				} else if (event == END_ELEMENT && "row".equals(reader.getLocalName())) {
+					if (dateRow == null) {
+						if ("Date".equalsIgnoreCase(cells.key)) {
+							int length = 1;
+
+							while (cells.kindAt(length) == SheetGrid.DATE) {
+								++length;
+							}
+							dateRow = cells.toGridRow(length);
+
+							if (length == 1)
+								break; // no dates to synchronize
+						}
+					} else {
+						int latestColumn = dateRow.kinds().length - 1;
+
+						if (cells.key != null && !cells.key.isBlank()) {
+							if (!isTarget.test(cells.key)) {
+								MdLog.all("Ignoring row %s".formatted(cells.key));
+								ignoredKeys.add(cells.key);
+							} else if (cells.kindAt(latestColumn) != SheetGrid.NOT_NUMERIC) {
+								rows.add(cells.toGridRow(latestColumn + 1));
+							}
+						}
+					}
+					syncWorker.checkCancelled();
+				}
+			} // end while
+			reader.close();
+		} // end try-with-resources
+
+		if (dateRow == null) {
+			syncWorker.display("Unable to find row with 'Date' in first column in %s".formatted(this));
+
+			return null;
+		}
+
+		return new SheetGrid(keyColumn, dateRow, rows, ignoredKeys);
+	} // end readGrid(Path, int, Map<Integer, String>, NwSyncWorker, Predicate<String>)
+
+	/**
+	 * Read one cell, leaving reader at the cell's end element.
+	 *
+	 * @param reader        Reader positioned at the cell's start element
+	 * @param index         Index of the cell relative to the key column
+	 * @param cells         Where to put the cell
+	 * @param sharedStrings The shared strings used in the key column
+	 */
+	private void readCell(XMLStreamReader reader, int index, RowCells cells,
+			Map<Integer, String> sharedStrings) throws XMLStreamException {
+		String type = reader.getAttributeValue(null, "t");
+		String style = reader.getAttributeValue(null, "s");
+		boolean hasFormula = false;
+		String value = null;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == START_ELEMENT) {
+				switch (reader.getLocalName()) {
+					case "f" -> {
+						hasFormula = true;
+						reader.getElementText();
+					}
+					case "v" -> value = reader.getElementText();
+					case "is" -> value = readText(reader, "is");
+					default -> { }
+				}
+			} else if (event == END_ELEMENT && "c".equals(reader.getLocalName())) {
+				break;
+			}
+		} // end while
+
+		if (value == null)
+			return;
+
+		if (index == 0) {
+			// key column: text, or the result of a formula
+			if ("s".equals(type)) {
+				cells.key = sharedStrings.get(Integer.parseInt(value.trim()));
+			} else if ("inlineStr".equals(type) || "str".equals(type) || hasFormula) {
+				cells.key = value;
+			}
+		} else if (!hasFormula && (type == null || "n".equals(type))) {
+			int styleIndex = style == null ? 0 : Integer.parseInt(style);
+			byte kind = styleIndex < this.styleKinds.length
+				? this.styleKinds[styleIndex] : SheetGrid.FLOAT;
+
+			if (kind != SheetGrid.NOT_NUMERIC) {
+				cells.put(index, kind, Double.parseDouble(value));
+			}
+		}
+
+	} // end readCell(XMLStreamReader, int, RowCells, Map<Integer, String>)
+
+	/**
+	 * @param reader      Reader positioned at the start of a rich text element
+	 * @param elementName Local name of the element
+	 * @return Concatenated text of its text runs, leaving reader at its end element
+	 */
+	private static String readText(XMLStreamReader reader, String elementName)
+			throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int phoneticDepth = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == START_ELEMENT) {
+				if ("rPh".equals(reader.getLocalName())) {
+					++phoneticDepth;
+				} else if ("t".equals(reader.getLocalName()) && phoneticDepth == 0) {
+					sb.append(reader.getElementText());
+				}
+			} else if (event == END_ELEMENT) {
+				if ("rPh".equals(reader.getLocalName())) {
+					--phoneticDepth;
+				} else if (elementName.equals(reader.getLocalName())) {
+					break;
+				}
+			}
+		} // end while
+
+		return sb.toString();
+	} // end readText(XMLStreamReader, String)
+
+	/**
+	 * @param cellRef  Cell or range reference, like B3 or B3:M40, or null
+	 * @param fallback Zero-based column index to use when cellRef is null
+	 * @return Zero-based column index of the first cell referenced
+	 */
+	private static int getColumnIndex(String cellRef, int fallback) {
+		if (cellRef == null)
+			return fallback;
+
+		int column = 0;
+
+		for (int i = 0; i < cellRef.length() && Character.isLetter(cellRef.charAt(i)); ++i) {
+			column = column * 26 + (Character.toUpperCase(cellRef.charAt(i)) - 'A' + 1);
+		}
+
+		return column - 1;
+	} // end getColumnIndex(String, int)
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @return Key of the cell in cellValues
+	 */
+	private static long cellKey(int column, int row) {
+
+		return (long) row << 32 | column;
+	} // end cellKey(int, int)
+
+	/**
+	 * @param column Zero-based sheet column index
+	 * @param row    Zero-based sheet row index
+	 * @param value  The value to save in the cell at the supplied position in the first sheet
+	 */
+	public void setCellValue(int column, int row, double value) {
+		this.cellValues.put(cellKey(column, row), value);
+
+	} // end setCellValue(int, int, double)
+
+	/**
+	 * Commit any changes by rewriting the first sheet's part of the workbook.
+	 * When cancelled, the values already applied are still written. When
+	 * rewriting fails, the workbook is left as it was and the applied changes
+	 * are staged again for the next commit.
+	 *
+	 * @param monitor Where to report progress and check for cancellation
+	 * @return The dropped changes, whose cells were edited since they were read
+	 */
+	public List<CellHandler> commitChanges(WorkMonitor monitor) {
+		List<CellHandler> staged = new ArrayList<>(getChanges());
+		List<CellHandler> conflicts;
+		try {
+			conflicts = super.commitChanges(monitor);
+		} catch (CancellationException e) {
+			if (!this.cellValues.isEmpty()) {
+				writeAppliedValues(staged);
+			}
+			throw e;
+		}
+		writeAppliedValues(staged);
+
+		return conflicts;
+	} // end commitChanges(WorkMonitor)
+
+	/**
+	 * Rewrite the first sheet's part of the workbook with the values applied
+	 * so far, then forget them.
+	 *
+	 * @param staged The changes staged when the commit started
+	 */
+	private void writeAppliedValues(List<CellHandler> staged) {
+		try {
+			writeSheet();
+		} catch (IOException e) {
+			restageChanges(staged.stream()
+				.filter(cHandler -> this.cellValues.containsKey(cellKey(cHandler.column, cHandler.row)))
+				.toList());
+			this.cellValues.clear();
+
+			throw new UncheckedIOException(e);
+		}
+		this.cellValues.clear();
+
+	} // end writeAppliedValues(List<CellHandler>)
+
+	/**
+	 * Clear out any pending changes, including values applied by a commit
+	 * that did not finish.
+	 */
+	public void forgetChanges() {
+		super.forgetChanges();
+		this.cellValues.clear();
+
+	} // end forgetChanges()
+
+	/**
+	 * Read the value now in each of the supplied cells in one pass over the
+	 * first sheet's part of the workbook.
+	 *
+	 * @param cells The cells to read
+	 * @return The numeric value of each cell, NaN for cells no longer numeric
+	 */
+	protected double[] readCurrentValues(List<CellHandler> cells) throws MduException {
+		Map<Long, Integer> indexes = HashMap.newHashMap(cells.size());
+
+		for (int i = 0; i < cells.size(); ++i) {
+			indexes.put(cellKey(cells.get(i).column, cells.get(i).row), i);
+		}
+		double[] values = new double[cells.size()];
+		Arrays.fill(values, Double.NaN);
+
+		try (FileSystem zip = FileSystems.newFileSystem(this.workbookPath);
+				InputStream in = Files.newInputStream(zip.getPath(this.sheetPart))) {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+			int sheetRow = -1;
+			int column = -1;
+			Integer index = null;
+
+			while (reader.hasNext()) {
+				if (reader.next() != START_ELEMENT)
+					continue;
+
+				switch (reader.getLocalName()) {
+					case "row" -> {
+						String rowNum = reader.getAttributeValue(null, "r");
+						sheetRow = rowNum == null ? sheetRow + 1 : Integer.parseInt(rowNum) - 1;
+						column = -1;
+					}
+					case "c" -> {
+						column = getColumnIndex(reader.getAttributeValue(null, "r"), column + 1);
+						String type = reader.getAttributeValue(null, "t");
+						index = type == null || "n".equals(type)
+							? indexes.get(cellKey(column, sheetRow)) : null;
+					}
+					case "f" -> index = null; // formula results are not numeric to us
+					case "v" -> {
+						if (index != null) {
+							values[index] = Double.parseDouble(reader.getElementText().trim());
+							index = null;
+						}
+					}
+					default -> { }
+				}
+			} // end while
+			reader.close();
+		} catch (IOException | XMLStreamException | NumberFormatException e) {
+			throw new MduException(e, "Exception reading %s", this.workbookPath);
+		}
+
+		return values;
+	} // end readCurrentValues(List<CellHandler>)
+
+	/**
+	 * Stream the first sheet through a writer that replaces changed cell
+	 * values, then replace just that entry in the workbook. Also have the
+	 * workbook recalculate on load, since formulas depending on the changed
+	 * cells still hold cached results. The entries are replaced in a copy of
+	 * the workbook that then replaces it, so a failure leaves it untouched.
+	 */
+	private void writeSheet() throws IOException {
+		Path tempFile = Files.createTempFile("nw-sync", ".xml");
+		Path tempWorkbook = Files.createTempFile(
+			this.workbookPath.toAbsolutePath().getParent(), "nw-sync", ".xlsx");
+
+		try {
+			Files.copy(this.workbookPath, tempWorkbook, REPLACE_EXISTING, COPY_ATTRIBUTES);
+			writeEntries(tempWorkbook, tempFile);
+			Files.move(tempWorkbook, this.workbookPath, REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tempFile);
+			Files.deleteIfExists(tempWorkbook);
+		}
+
+	} // end writeSheet()
+
+	/**
+	 * @param workbook The copy of the workbook to change
+	 * @param tempFile Scratch file for each rewritten entry
+	 */
+	private void writeEntries(Path workbook, Path tempFile) throws IOException {
+		try (FileSystem zip = FileSystems.newFileSystem(workbook)) {
+			Path sheetPath = zip.getPath(this.sheetPart);
+
+			try (InputStream in = Files.newInputStream(sheetPath);
+					OutputStream out = Files.newOutputStream(tempFile)) {
+				copyWithChanges(inputFactory.createXMLEventReader(in),
+					outputFactory.createXMLEventWriter(out, "UTF-8"));
+			} catch (XMLStreamException e) {
+				throw new IOException("Exception rewriting %s".formatted(this.sheetPart), e);
+			}
+			Files.copy(tempFile, sheetPath, REPLACE_EXISTING);
+			Path workbookPart = zip.getPath(WORKBOOK_PART);
+
+			try (InputStream in = Files.newInputStream(workbookPart);
+					OutputStream out = Files.newOutputStream(tempFile)) {
+				copyWithFullCalcOnLoad(inputFactory.createXMLEventReader(in),
+					outputFactory.createXMLEventWriter(out, "UTF-8"));
+			} catch (XMLStreamException e) {
+				throw new IOException("Exception rewriting %s".formatted(WORKBOOK_PART), e);
+			}
+			Files.copy(tempFile, workbookPart, REPLACE_EXISTING);
+		}
+
+	} // end writeEntries(Path, Path)
+
+	/**
+	 * @param reader Workbook events to copy
+	 * @param writer Where to copy them, with calcPr set to fully calculate on load
+	 */
+	private static void copyWithFullCalcOnLoad(XMLEventReader reader, XMLEventWriter writer)
+			throws XMLStreamException {
+		int depth = 0;
+		boolean calcPrWritten = false;
+
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+
+			if (event.isStartElement()) {
+				StartElement start = event.asStartElement();
+				String name = start.getName().getLocalPart();
+
+				if (depth == 1 && "calcPr".equals(name)) {
+					event = withFullCalcOnLoad(start);
+					calcPrWritten = true;
+				} else if (depth == 1 && !calcPrWritten && AFTER_CALC_PR.contains(name)) {
+					addCalcPr(writer, start.getName().getNamespaceURI());
+					calcPrWritten = true;
+				}
+				++depth;
+			} else if (event.isEndElement()) {
+				EndElement end = event.asEndElement();
+
+				if (--depth == 0 && !calcPrWritten) {
+					addCalcPr(writer, end.getName().getNamespaceURI());
+					calcPrWritten = true;
+				}
+			}
+			writer.add(event);
+		} // end while
+		writer.flush();
+		writer.close();
+		reader.close();
+
+	} // end copyWithFullCalcOnLoad(XMLEventReader, XMLEventWriter)
+
+	/**
+	 * @param calcPr The existing calcPr element
+	 * @return calcPr with its fullCalcOnLoad attribute set
+	 */
+	private static StartElement withFullCalcOnLoad(StartElement calcPr) {
+		List<Attribute> attributes = new ArrayList<>();
+
+		for (Iterator<Attribute> itr = calcPr.getAttributes(); itr.hasNext(); ) {
+			Attribute attribute = itr.next();
+
+			if (!"fullCalcOnLoad".equals(attribute.getName().getLocalPart())) {
+				attributes.add(attribute);
+			}
+		} // end for
+		attributes.add(eventFactory.createAttribute("fullCalcOnLoad", "1"));
+
+		return eventFactory.createStartElement(calcPr.getName(), attributes.iterator(),
+			calcPr.getNamespaces());
+	} // end withFullCalcOnLoad(StartElement)
+
+	/**
+	 * @param writer       Where to add a calcPr element
+	 * @param namespaceUri Namespace of the workbook element
+	 */
+	private static void addCalcPr(XMLEventWriter writer, String namespaceUri)
+			throws XMLStreamException {
+		writer.add(eventFactory.createStartElement("", namespaceUri, "calcPr",
+			List.of(eventFactory.createAttribute("fullCalcOnLoad", "1")).iterator(), null));
+		writer.add(eventFactory.createEndElement("", namespaceUri, "calcPr"));
+
+	} // end addCalcPr(XMLEventWriter, String)
+
+	/**
+	 * @param reader Sheet events to copy
+	 * @param writer Where to copy them, with changed cell values replaced
+	 */
+	private void copyWithChanges(XMLEventReader reader, XMLEventWriter writer)
+			throws XMLStreamException {
+		int sheetRow = -1;
+		int column = -1;
+		Double newValue = null;
+
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+
+			if (event.isStartElement()) {
+				StartElement start = event.asStartElement();
+
+				switch (start.getName().getLocalPart()) {
+					case "row" -> {
+						String rowNum = getAttribute(start, "r");
+						sheetRow = rowNum == null ? sheetRow + 1 : Integer.parseInt(rowNum) - 1;
+						column = -1;
+					}
+					case "c" -> {
+						column = getColumnIndex(getAttribute(start, "r"), column + 1);
+						newValue = this.cellValues.get(cellKey(column, sheetRow));
+					}
+					case "v" -> {
+						if (newValue != null) {
+							writer.add(event);
+							writer.add(eventFactory.createCharacters(
+								BigDecimal.valueOf(newValue).stripTrailingZeros().toPlainString()));
+
+							// skip the old value
+							while (!reader.peek().isEndElement()) {
+								reader.nextEvent();
+							}
+							newValue = null;
+
+							continue;
+						}
+					}
+					default -> { }
+				}
+			}
+			writer.add(event);
+		} // end while
+		writer.flush();
+		writer.close();
+		reader.close();
+
+	} // end copyWithChanges(XMLEventReader, XMLEventWriter)
+
+	/**
+	 * @param start Start element
+	 * @param name  Local name of an unqualified attribute
+	 * @return The attribute's value, or null when absent
+	 */
+	private static String getAttribute(StartElement start, String name) {
+		Attribute attribute = start.getAttributeByName(new QName(name));
+
+		return attribute == null ? null : attribute.getValue();
+	} // end getAttribute(StartElement, String)
+
+	/**
+	 * @return Change indicator from the workbook's modification time and size
+	 */
+	public String getChangeToken() {
+		try {
+
+			return Files.getLastModifiedTime(this.workbookPath) + "#" + Files.size(this.workbookPath);
+		} catch (IOException e) {
+
+			return null;
+		}
+	} // end getChangeToken()
+
+} // end class XlsxDoc
@@ -0,0 +1,133 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Check ScaledValues.equalsRounded against BigDecimal rounding, concentrating
+ * on doubles close to a rounding boundary at large scales, where the error
+ * in scaling a double by a power of ten exceeds any fixed tolerance.
+ *
+ * <pre>java -ea -cp ... com.moneydance.modules.features.nwsync.ScaledValuesTest</pre>
+ */
+public class ScaledValuesTest {
+	private static final MathContext PRECISION = new MathContext(13, RoundingMode.HALF_EVEN);
+	private static final int NUM_TRIALS = 200_000;
+
+	private int numChecked = 0;
+	private int numUndecided = 0;
+
+	/**
+	 * @param args Optional random seed
+	 */
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		ScaledValuesTest test = new ScaledValuesTest();
+		test.checkReportedBoundary();
+		test.checkNearBoundaries(new Random(seed));
+		test.checkAwayFromBoundaries(new Random(seed));
+		test.checkMissingCopied();
+		System.out.printf("Checked %,d comparisons (seed %d), %,d left to BigDecimal%n",
+			test.numChecked, seed, test.numUndecided);
+
+	} // end main(String[])
+
+	/**
+	 * A missing value stays missing when copied, and only at its own index.
+	 */
+	private void checkMissingCopied() {
+		ScaledValues source = ScaledValues.of(BigDecimal.ONE, BigDecimal.TEN);
+		source.setMissing(1);
+		ScaledValues copy = new ScaledValues(2);
+		copy.set(0, source, 0);
+		copy.set(1, source, 1);
+
+		if (copy.isMissing(0) || !copy.isMissing(1))
+			throw new AssertionError("Missing value not copied by index");
+
+	} // end checkMissingCopied()
+
+	/**
+	 * A value whose 14th digit is a 5 at scale 16, compared with its
+	 * neighbors one unit apart in the 13th digit.
+	 */
+	private void checkReportedBoundary() {
+		double d = 9.7823516029135E-4;
+		BigDecimal value = BigDecimal.valueOf(d).round(PRECISION);
+		BigDecimal ulp = value.ulp();
+
+		checkComparison(d, value.subtract(ulp));
+		checkComparison(d, value);
+		checkComparison(d, value.add(ulp));
+
+	} // end checkReportedBoundary()
+
+	/**
+	 * Doubles parsed from 14 digit decimals ending in 5 across the whole
+	 * range of scales, each compared with both candidate roundings.
+	 *
+	 * @param random Source of digits and magnitudes
+	 */
+	private void checkNearBoundaries(Random random) {
+		for (int i = 0; i < NUM_TRIALS; ++i) {
+			long digits = 1_000_000_000_000L + random.nextLong(9_000_000_000_000L);
+			int scale = random.nextInt(23) + 1;
+			BigDecimal tie = BigDecimal.valueOf(digits * 10 + 5, scale);
+			double d = random.nextBoolean() ? tie.doubleValue() : -tie.doubleValue();
+			BigDecimal down = BigDecimal.valueOf(digits, scale - 1);
+			BigDecimal up = BigDecimal.valueOf(digits + 1, scale - 1);
+
+			checkComparison(d, d < 0 ? down.negate() : down);
+			checkComparison(d, d < 0 ? up.negate() : up);
+			checkComparison(Math.nextUp(d), d < 0 ? up.negate() : up);
+			checkComparison(Math.nextDown(d), d < 0 ? down.negate() : down);
+		} // end for
+
+	} // end checkNearBoundaries(Random)
+
+	/**
+	 * Doubles well clear of any rounding boundary must compare equal without
+	 * falling back to BigDecimal.
+	 *
+	 * @param random Source of digits and magnitudes
+	 */
+	private void checkAwayFromBoundaries(Random random) {
+		for (int i = 0; i < NUM_TRIALS; ++i) {
+			long digits = 1_000_000_000_000L + random.nextLong(9_000_000_000_000L);
+			int scale = random.nextInt(23);
+			double d = BigDecimal.valueOf(digits * 10 + 2, scale + 1).doubleValue();
+			ScaledValues values = ScaledValues.of(BigDecimal.valueOf(digits, scale));
+
+			if (!values.equalsRounded(0, d))
+				throw new AssertionError("%s should equal %s at 13 digits".formatted(d, values.get(0)));
+		} // end for
+
+	} // end checkAwayFromBoundaries(Random)
+
+	/**
+	 * A true result from equalsRounded must agree with rounding both the exact
+	 * binary value of the double and its shortest decimal form.
+	 *
+	 * @param d     The double to compare
+	 * @param value The value to compare it with
+	 */
+	private void checkComparison(double d, BigDecimal value) {
+		ScaledValues values = ScaledValues.of(value);
+		++this.numChecked;
+
+		if (values.equalsRounded(0, d)) {
+			BigDecimal exact = new BigDecimal(d).round(PRECISION);
+			BigDecimal shortest = BigDecimal.valueOf(d).round(PRECISION);
+
+			if (exact.compareTo(value) != 0 || shortest.compareTo(value) != 0)
+				throw new AssertionError("%s reported equal to %s; rounds to %s exactly, %s as shown"
+					.formatted(d, value, exact, shortest));
+		} else {
+			++this.numUndecided;
+		}
+
+	} // end checkComparison(double, BigDecimal)
+
+} // end class ScaledValuesTest
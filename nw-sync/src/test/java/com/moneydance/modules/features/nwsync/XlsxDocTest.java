@@ -0,0 +1,117 @@
+package com.moneydance.modules.features.nwsync;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.moneydance.modules.features.nwsync.CellHandler.FloatCellHandler;
+
+/**
+ * Check that an xlsx commit whose rewrite fails leaves its changes staged,
+ * so the next commit writes them.
+ *
+ * <pre>java -ea -cp ... com.moneydance.modules.features.nwsync.XlsxDocTest</pre>
+ */
+public class XlsxDocTest {
+	private static final String WORKBOOK = """
+		<workbook xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main" \
+		xmlns:r="http://schemas.openxmlformats.org/officeDocument/2006/relationships">\
+		<sheets><sheet name="NW" sheetId="1" r:id="rId1"/></sheets></workbook>""";
+	private static final String WORKBOOK_RELS = """
+		<Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">\
+		<Relationship Id="rId1" Target="worksheets/sheet1.xml" \
+		Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet"/>\
+		</Relationships>""";
+	private static final String SHEET = """
+		<worksheet xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main"><sheetData>\
+		<row r="2"><c r="B2"><v>1.5</v></c></row></sheetData></worksheet>""";
+
+	/**
+	 * @param args Not used
+	 */
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("nw-sync-test");
+		Path workbookPath = dir.resolve("nw.xlsx");
+
+		try {
+			writeWorkbook(workbookPath);
+			checkFailedRewrite(workbookPath);
+			System.out.println("Failed xlsx rewrite kept its change staged");
+		} finally {
+			try (var files = Files.list(dir)) {
+				for (Path file : files.toList()) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+
+	} // end main(String[])
+
+	/**
+	 * Stage a change, commit it while the workbook is missing, then commit
+	 * again once the workbook is back.
+	 *
+	 * @param workbookPath Location of the xlsx workbook
+	 */
+	private static void checkFailedRewrite(Path workbookPath) throws Exception {
+		XlsxDoc doc = XlsxDoc.open(workbookPath);
+		CellHandler cell = new FloatCellHandler(doc, 1, 1, 1.5, false);
+		cell.setNewValue(2.5);
+		byte[] workbook = Files.readAllBytes(workbookPath);
+		Files.delete(workbookPath);
+
+		try {
+			doc.commitChanges(WorkMonitor.NONE);
+
+			throw new AssertionError("Commit should fail without the workbook");
+		} catch (UncheckedIOException e) {
+			// expected
+		}
+		if (!doc.isModified() || doc.getChanges().size() != 1 || doc.getChanges().getFirst() != cell)
+			throw new AssertionError("Change should stay staged, found %s".formatted(doc.getChanges()));
+
+		Files.write(workbookPath, workbook);
+		List<CellHandler> conflicts = doc.commitChanges(WorkMonitor.NONE);
+
+		if (!conflicts.isEmpty() || doc.isModified())
+			throw new AssertionError("Second commit should apply, dropped %s".formatted(conflicts));
+
+		double written = doc.readCurrentValues(List.of(cell))[0];
+
+		if (written != 2.5)
+			throw new AssertionError("Cell should hold 2.5, found %s".formatted(written));
+
+	} // end checkFailedRewrite(Path)
+
+	/**
+	 * @param workbookPath Where to write a workbook with one numeric cell, B2
+	 */
+	private static void writeWorkbook(Path workbookPath) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(workbookPath))) {
+			addEntry(zip, "xl/workbook.xml", WORKBOOK);
+			addEntry(zip, "xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+			addEntry(zip, "xl/worksheets/sheet1.xml", SHEET);
+		}
+
+	} // end writeWorkbook(Path)
+
+	/**
+	 * @param zip     The zip to add to
+	 * @param name    Name of the entry
+	 * @param content Text of the entry
+	 */
+	private static void addEntry(ZipOutputStream zip, String name, String content)
+			throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+
+	} // end addEntry(ZipOutputStream, String, String)
+
+} // end class XlsxDocTest